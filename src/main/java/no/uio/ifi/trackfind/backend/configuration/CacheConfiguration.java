@@ -0,0 +1,48 @@
+package no.uio.ifi.trackfind.backend.configuration;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Caffeine-backed cache manager: every cache is bounded according to its policy (see {@link CacheProperties})
+ * and reports hit, miss, eviction and load statistics to the meter registry.
+ */
+@Configuration
+@EnableConfigurationProperties(CacheProperties.class)
+public class CacheConfiguration {
+
+    @Bean
+    public CacheManager cacheManager(CacheProperties cacheProperties, MeterRegistry meterRegistry) {
+        return new CaffeineCacheManager() {
+            @Override
+            protected Cache<Object, Object> createNativeCaffeineCache(String name) {
+                Cache<Object, Object> cache = buildCache(cacheProperties.getPolicy(name));
+                return CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+            }
+        };
+    }
+
+    protected Cache<Object, Object> buildCache(CacheProperties.Policy policy) {
+        Caffeine<Object, Object> caffeine = Caffeine.newBuilder().recordStats();
+        if (policy.getMaximumWeight() != null) {
+            caffeine.maximumWeight(policy.getMaximumWeight().toBytes()).weigher(new CacheWeigher());
+        } else if (policy.getMaximumSize() != null) {
+            caffeine.maximumSize(policy.getMaximumSize());
+        }
+        if (policy.getExpireAfterWrite() != null) {
+            caffeine.expireAfterWrite(policy.getExpireAfterWrite());
+        }
+        if (policy.getExpireAfterAccess() != null) {
+            caffeine.expireAfterAccess(policy.getExpireAfterAccess());
+        }
+        return caffeine.build();
+    }
+
+}
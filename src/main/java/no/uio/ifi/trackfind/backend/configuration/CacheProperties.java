@@ -0,0 +1,75 @@
+package no.uio.ifi.trackfind.backend.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size and expiry policies of application caches.
+ * Caches without their own policy use the default one.
+ */
+@Data
+@ConfigurationProperties(prefix = "trackfind.cache")
+public class CacheProperties {
+
+    private Policy defaultPolicy = new Policy();
+    private Map<String, Policy> policies = new HashMap<>();
+    private WarmUp warmUp = new WarmUp();
+
+    /**
+     * Gets policy of the cache.
+     *
+     * @param cacheName Cache name.
+     * @return Policy of the cache or default policy.
+     */
+    public Policy getPolicy(String cacheName) {
+        return policies.getOrDefault(cacheName, defaultPolicy);
+    }
+
+    @Data
+    public static class Policy {
+
+        /**
+         * Max estimated size of cached keys and values. Takes precedence over maximumSize.
+         */
+        private DataSize maximumWeight;
+
+        /**
+         * Max number of entries.
+         */
+        private Long maximumSize;
+
+        private Duration expireAfterWrite;
+        private Duration expireAfterAccess;
+
+    }
+
+    @Data
+    public static class WarmUp {
+
+        private boolean enabled = true;
+
+        /**
+         * Frequent queries to run for hubs whose version changed, before the new version goes live.
+         */
+        private List<Query> queries = new ArrayList<>();
+
+    }
+
+    @Data
+    public static class Query {
+
+        private String repository;
+        private String hub;
+        private String query;
+        private long limit;
+
+    }
+
+}
@@ -0,0 +1,90 @@
+package no.uio.ifi.trackfind.backend.configuration;
+
+import com.fasterxml.jackson.databind.util.RawValue;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.google.common.collect.Multimap;
+import no.uio.ifi.trackfind.backend.data.MetamodelSnapshot;
+import no.uio.ifi.trackfind.backend.pojo.RawSearchResult;
+import no.uio.ifi.trackfind.backend.pojo.SearchPage;
+import no.uio.ifi.trackfind.backend.pojo.SearchResult;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Estimates heap size of cached entries in bytes.
+ * Exact for none of the types, but proportional to the amount of data cached: search results, metamodels, etc.
+ * Other objects (entities, plans) are counted as fixed-size.
+ */
+public class CacheWeigher implements Weigher<Object, Object> {
+
+    private static final long OBJECT_SIZE = 64;
+    private static final long REFERENCE_SIZE = 8;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int weigh(Object key, Object value) {
+        return (int) Math.min(Integer.MAX_VALUE, estimate(String.valueOf(key)) + estimate(value));
+    }
+
+    /**
+     * Estimates size of the object.
+     *
+     * @param object Object.
+     * @return Estimated size in bytes.
+     */
+    @SuppressWarnings("rawtypes")
+    public long estimate(Object object) {
+        if (object == null) {
+            return 0;
+        }
+        if (object instanceof String) {
+            return 40 + 2L * ((String) object).length();
+        }
+        if (object instanceof RawValue) {
+            return OBJECT_SIZE + estimate(String.valueOf(((RawValue) object).rawValue()));
+        }
+        if (object instanceof Roaring64NavigableMap) {
+            return ((Roaring64NavigableMap) object).getLongSizeInBytes();
+        }
+        if (object instanceof MetamodelSnapshot) {
+            return ((MetamodelSnapshot) object).estimateSize();
+        }
+        if (object instanceof SearchPage) {
+            SearchPage page = (SearchPage) object;
+            return OBJECT_SIZE + estimate(page.getIds()) + estimate(page.getResults()) + estimate(page.getNextCursor());
+        }
+        if (object instanceof SearchResult) {
+            return OBJECT_SIZE + estimate(((SearchResult) object).getContent());
+        }
+        if (object instanceof RawSearchResult) {
+            return OBJECT_SIZE + estimate(((RawSearchResult) object).getContent());
+        }
+        if (object instanceof Optional) {
+            return OBJECT_SIZE + estimate(((Optional) object).orElse(null));
+        }
+        if (object instanceof Multimap) {
+            return estimate(((Multimap) object).asMap());
+        }
+        if (object instanceof Collection) {
+            long size = OBJECT_SIZE;
+            for (Object element : (Collection) object) {
+                size += REFERENCE_SIZE + estimate(element);
+            }
+            return size;
+        }
+        if (object instanceof Map) {
+            long size = OBJECT_SIZE;
+            for (Object entry : ((Map) object).entrySet()) {
+                size += OBJECT_SIZE + estimate(((Map.Entry) entry).getKey()) + estimate(((Map.Entry) entry).getValue());
+            }
+            return size;
+        }
+        return OBJECT_SIZE;
+    }
+
+}
@@ -0,0 +1,35 @@
+package no.uio.ifi.trackfind.backend.configuration;
+
+import no.uio.ifi.trackfind.backend.services.impl.VersionRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.interceptor.KeyGenerator;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.cache.interceptor.SimpleKeyGenerator;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+
+/**
+ * Generates cache keys for methods taking repository and hub names as the first two parameters:
+ * the key includes current version of the hub, as seen by {@link VersionRegistry}.
+ */
+@Component
+public class HubVersionKeyGenerator implements KeyGenerator {
+
+    private VersionRegistry versionRegistry;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object generate(Object target, Method method, Object... params) {
+        VersionRegistry.HubVersion hubVersion = versionRegistry.getHubVersion((String) params[0], (String) params[1]);
+        return new SimpleKey(hubVersion, SimpleKeyGenerator.generateKey(params));
+    }
+
+    @Autowired
+    public void setVersionRegistry(VersionRegistry versionRegistry) {
+        this.versionRegistry = versionRegistry;
+    }
+
+}
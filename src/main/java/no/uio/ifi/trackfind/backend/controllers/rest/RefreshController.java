@@ -0,0 +1,54 @@
+package no.uio.ifi.trackfind.backend.controllers.rest;
+
+import no.uio.ifi.trackfind.backend.pojo.RefreshJob;
+import no.uio.ifi.trackfind.backend.services.impl.CacheService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collection;
+
+/**
+ * REST controller exposing status of background refreshes.
+ */
+@RequestMapping("/api/v1")
+@RestController
+public class RefreshController {
+
+    private CacheService cacheService;
+
+    /**
+     * Gets recent refresh jobs.
+     *
+     * @return Refresh jobs, latest first.
+     */
+    @GetMapping(path = "/refresh-jobs", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Collection<RefreshJob>> getRefreshJobs() {
+        return ResponseEntity.ok(cacheService.getRefreshJobs());
+    }
+
+    /**
+     * Gets refresh job by ID.
+     *
+     * @param id Refresh job ID.
+     * @return Refresh job.
+     */
+    @GetMapping(path = "/refresh-jobs/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<RefreshJob> getRefreshJob(@PathVariable long id) {
+        return cacheService.getRefreshJobs().stream()
+                .filter(j -> j.getId() == id)
+                .findAny()
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @Autowired
+    public void setCacheService(CacheService cacheService) {
+        this.cacheService = cacheService;
+    }
+
+}
@@ -1,6 +1,12 @@
 package no.uio.ifi.trackfind.backend.controllers.rest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.common.collect.Multimap;
+import no.uio.ifi.trackfind.backend.pojo.AttributeFacet;
+import no.uio.ifi.trackfind.backend.pojo.RawSearchResult;
+import no.uio.ifi.trackfind.backend.pojo.SearchPage;
 import no.uio.ifi.trackfind.backend.pojo.SearchResult;
 import no.uio.ifi.trackfind.backend.pojo.TfHub;
 import no.uio.ifi.trackfind.backend.pojo.TfObjectType;
@@ -8,14 +14,30 @@ import no.uio.ifi.trackfind.backend.services.impl.GSuiteService;
 import no.uio.ifi.trackfind.backend.services.impl.MetamodelService;
 import no.uio.ifi.trackfind.backend.services.impl.SearchService;
 import no.uio.ifi.trackfind.backend.services.impl.TrackFindService;
+import no.uio.ifi.trackfind.backend.services.impl.VersionRegistry;
 import org.apache.commons.lang3.StringUtils;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -27,10 +49,17 @@ import java.util.stream.Collectors;
 @RestController
 public class TrackFindController {
 
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private TrackFindService trackFindService;
     private MetamodelService metamodelService;
     private SearchService searchService;
     private GSuiteService gSuiteService;
+    private ObjectMapper objectMapper;
+    private ObjectWriter ndjsonWriter;
+    private VersionRegistry versionRegistry;
+    private CacheControl cacheControl;
 
     /**
      * Gets all repositories.
@@ -59,6 +88,7 @@ public class TrackFindController {
      *
      * @param repository Repository name.
      * @param hub        Track hub name.
+     * @param webRequest Current request (for conditional handling).
      * @return Metamodel in tree form.
      */
     @GetMapping(path = "/metamodel/{repository}/{hub}", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -67,16 +97,20 @@ public class TrackFindController {
             @PathVariable String hub,
             @RequestParam(required = false) String attributesFilter,
             @RequestParam(required = false) String valuesFilter,
-            @RequestParam(required = false, defaultValue = "false") boolean flat) {
+            @RequestParam(required = false, defaultValue = "false") boolean flat,
+            ServletWebRequest webRequest) {
+        if (checkNotModified(webRequest, repository, hub)) {
+            return null;
+        }
         if (flat) {
             Map<String, Multimap<String, String>> metamodelFlat = metamodelService.getMetamodelFlat(repository, hub, attributesFilter, valuesFilter, null);
             Map<String, Map<String, Collection<String>>> result = new HashMap<>();
             for (String key : metamodelFlat.keySet()) {
                 result.put(key, metamodelFlat.get(key).asMap());
             }
-            return ResponseEntity.ok(result);
+            return ok(webRequest).body(result);
         } else {
-            return ResponseEntity.ok(metamodelService.getMetamodelTree(repository, hub, attributesFilter, valuesFilter));
+            return ok(webRequest).body(metamodelService.getMetamodelTree(repository, hub, attributesFilter, valuesFilter));
         }
     }
 
@@ -85,13 +119,18 @@ public class TrackFindController {
      *
      * @param repository Repository name.
      * @param hub        Track Hub name.
+     * @param webRequest Current request (for conditional handling).
      * @return List of attributes.
      */
     @GetMapping(path = "/categories/{repository}/{hub}", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Collection<String>> getCategories(
             @PathVariable String repository,
-            @PathVariable String hub) {
-        return ResponseEntity.ok(metamodelService.getObjectTypes(repository, hub).stream().map(TfObjectType::getName).collect(Collectors.toSet()));
+            @PathVariable String hub,
+            ServletWebRequest webRequest) {
+        if (checkNotModified(webRequest, repository, hub)) {
+            return null;
+        }
+        return ok(webRequest).body(metamodelService.getObjectTypes(repository, hub).stream().map(TfObjectType::getName).collect(Collectors.toSet()));
     }
 
     /**
@@ -101,6 +140,7 @@ public class TrackFindController {
      * @param hub        Track Hub name.
      * @param category   Category name.
      * @param path       Path to the attribute to get sub-attributes for (optional).
+     * @param webRequest Current request (for conditional handling).
      * @return List of attributes.
      */
     @GetMapping(path = "/attributes/{repository}/{hub}/{category}", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -108,8 +148,12 @@ public class TrackFindController {
             @PathVariable String repository,
             @PathVariable String hub,
             @PathVariable String category,
-            @RequestParam(required = false) String path) {
-        return ResponseEntity.ok(metamodelService.getAttributes(repository, hub, category, path));
+            @RequestParam(required = false) String path,
+            ServletWebRequest webRequest) {
+        if (checkNotModified(webRequest, repository, hub)) {
+            return null;
+        }
+        return ok(webRequest).body(metamodelService.getAttributes(repository, hub, category, path));
     }
 
     /**
@@ -121,6 +165,7 @@ public class TrackFindController {
      * @param path       Path to the attribute to get values for.
      * @param filter     Optional filter for values (case-insensitive).
      * @param query      Optional search query to filter out objects before collecting available values.
+     * @param webRequest Current request (for conditional handling).
      * @return List of values.
      */
     @GetMapping(path = "/values/{repository}/{hub}/{category}", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -130,12 +175,60 @@ public class TrackFindController {
             @PathVariable String category,
             @RequestParam String path,
             @RequestParam(required = false) String filter,
-            @RequestParam(required = false) String query) throws SQLException {
-        Set<Long> ids = null;
+            @RequestParam(required = false) String query,
+            ServletWebRequest webRequest) throws SQLException {
+        if (checkNotModified(webRequest, repository, hub)) {
+            return null;
+        }
+        Roaring64NavigableMap ids = null;
         if (query != null) {
-            ids = searchService.search(repository, hub, query, null, 0).getKey();
+            ids = searchService.search(repository, hub, query, null, 0, null).getIds();
+        }
+        return ok(webRequest).body(metamodelService.getValues(repository, hub, category, path, null, filter, ids));
+    }
+
+    /**
+     * Gets number of objects per value of a particular attribute of Track TfHub's metamodel.
+     *
+     * @param repository Repository name.
+     * @param hub        Track Hub name.
+     * @param category   Category name.
+     * @param path       Path to the attribute to get value counts for.
+     * @param webRequest Current request (for conditional handling).
+     * @return Number of objects by value.
+     */
+    @GetMapping(path = "/value-counts/{repository}/{hub}/{category}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Long>> getValueCounts(
+            @PathVariable String repository,
+            @PathVariable String hub,
+            @PathVariable String category,
+            @RequestParam String path,
+            ServletWebRequest webRequest) {
+        if (checkNotModified(webRequest, repository, hub)) {
+            return null;
         }
-        return ResponseEntity.ok(metamodelService.getValues(repository, hub, category, path, null, filter, ids));
+        return ok(webRequest).body(metamodelService.getValueCounts(repository, hub, category, path));
+    }
+
+    /**
+     * Gets number of distinct values and number of objects per attribute of Track TfHub's metamodel.
+     *
+     * @param repository Repository name.
+     * @param hub        Track Hub name.
+     * @param category   Category name.
+     * @param webRequest Current request (for conditional handling).
+     * @return Attribute facets.
+     */
+    @GetMapping(path = "/attribute-facets/{repository}/{hub}/{category}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Collection<AttributeFacet>> getAttributeFacets(
+            @PathVariable String repository,
+            @PathVariable String hub,
+            @PathVariable String category,
+            ServletWebRequest webRequest) {
+        if (checkNotModified(webRequest, repository, hub)) {
+            return null;
+        }
+        return ok(webRequest).body(metamodelService.getAttributeFacets(repository, hub, category));
     }
 
     /**
@@ -146,22 +239,76 @@ public class TrackFindController {
      * @param query      Search query.
      * @param categories Comma-separated categories.
      * @param limit      Max number of entries to return.
+     * @param cursor     Token of the page to start from, as returned in the "X-Next-Cursor" header (optional).
+     * @param webRequest Current request (for conditional handling).
      * @return Search results by version.
      */
     @GetMapping(path = "/search/{repository}/{hub}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Collection<SearchResult>> searchJSON(
+    public ResponseEntity<Collection<RawSearchResult>> searchJSON(
             @PathVariable String repository,
             @PathVariable String hub,
             @RequestParam String query,
             @RequestParam(required = false, defaultValue = "") String categories,
-            @RequestParam(required = false, defaultValue = "0") long limit) {
+            @RequestParam(required = false, defaultValue = "0") long limit,
+            @RequestParam(required = false) String cursor,
+            ServletWebRequest webRequest) {
+        if (checkNotModified(webRequest, repository, hub)) {
+            return null;
+        }
         try {
-            return ResponseEntity.ok(searchService.search(repository, hub, query, Arrays.stream(StringUtils.split(categories, ",")).map(String::trim).collect(Collectors.toSet()), limit).getValue());
-        } catch (SQLException e) {
+            SearchPage<RawSearchResult> page = searchService.searchRaw(repository, hub, query, Arrays.stream(StringUtils.split(categories, ",")).map(String::trim).collect(Collectors.toSet()), limit, cursor);
+            return withNextCursor(ok(webRequest), page).body(page.getResults());
+        } catch (SQLException | IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(null);
         }
     }
 
+    /**
+     * Performs search over the Directory of specified Track TfHub, streaming results as newline-delimited JSON.
+     * Each line is written as soon as it's fetched from the database, so memory usage doesn't depend on result size.
+     * Responds with 503 when too many streams are running. If the search fails once the response is started,
+     * the connection is aborted, so that clients don't take a truncated stream for a complete one.
+     *
+     * @param repository Repository name.
+     * @param hub        Track TfHub name.
+     * @param query      Search query.
+     * @param categories Comma-separated categories.
+     * @param limit      Max number of entries to return. 0 for unlimited.
+     * @param webRequest Current request (for conditional handling).
+     * @return Stream of search results, one per line.
+     */
+    @GetMapping(path = "/search/{repository}/{hub}", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> searchNDJSON(
+            @PathVariable String repository,
+            @PathVariable String hub,
+            @RequestParam String query,
+            @RequestParam(required = false, defaultValue = "") String categories,
+            @RequestParam(required = false, defaultValue = "0") long limit,
+            ServletWebRequest webRequest) {
+        if (checkNotModified(webRequest, repository, hub)) {
+            return null;
+        }
+        if (!searchService.isStreamAvailable()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        Set<String> categoriesSet = Arrays.stream(StringUtils.split(categories, ",")).map(String::trim).collect(Collectors.toSet());
+        StreamingResponseBody body = outputStream -> {
+            try {
+                searchService.stream(repository, hub, query, categoriesSet, limit, searchResult -> {
+                    try {
+                        outputStream.write(ndjsonWriter.writeValueAsBytes(searchResult));
+                        outputStream.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (SQLException e) {
+                throw new IOException("Search failed while streaming results", e);
+            }
+        };
+        return ok(webRequest).contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
     /**
      * Performs search over the Directory of specified Track TfHub.
      *
@@ -171,6 +318,8 @@ public class TrackFindController {
      * @param categories Comma-separated categories.
      * @param attributes Comma-separated attributes (paths).
      * @param limit      Max number of entries to return. 0 for unlimited.
+     * @param cursor     Token of the page to start from, as returned in the "X-Next-Cursor" header (optional).
+     * @param webRequest Current request (for conditional handling).
      * @return Search results by version.
      */
     @GetMapping(path = "/search/{repository}/{hub}", produces = MediaType.TEXT_PLAIN_VALUE)
@@ -180,15 +329,72 @@ public class TrackFindController {
             @RequestParam String query,
             @RequestParam(required = false, defaultValue = "") String categories,
             @RequestParam(required = false, defaultValue = "") String attributes,
-            @RequestParam(required = false, defaultValue = "0") long limit) {
+            @RequestParam(required = false, defaultValue = "0") long limit,
+            @RequestParam(required = false) String cursor,
+            ServletWebRequest webRequest) {
+        if (checkNotModified(webRequest, repository, hub)) {
+            return null;
+        }
         try {
-            Collection<SearchResult> datasets = searchService.search(repository, hub, query, Arrays.stream(StringUtils.split(categories, ",")).map(String::trim).collect(Collectors.toSet()), limit).getValue();
-            return ResponseEntity.ok(gSuiteService.apply(datasets, attributes));
-        } catch (SQLException e) {
+            SearchPage<SearchResult> page = searchService.search(repository, hub, query, Arrays.stream(StringUtils.split(categories, ",")).map(String::trim).collect(Collectors.toSet()), limit, cursor);
+            return withNextCursor(ok(webRequest), page).body(gSuiteService.apply(page.getResults(), attributes));
+        } catch (SQLException | IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(null);
         }
     }
 
+    /**
+     * Handles conditional GET of hub data. The strong ETag is derived from the hub version seen by readers
+     * and from the request (parameters and produced media type), so it changes only when the response would.
+     * Validators are set on the response either way, so that HTTP caches can revalidate it. Cache-Control is set here
+     * for 304 only: successful responses get it from {@link #ok(ServletWebRequest)}, errors must not be cached.
+     *
+     * @param webRequest Current request.
+     * @param repository Repository name.
+     * @param hub        Hub name.
+     * @return true if the client's copy is up to date and the response is complete (304 Not Modified).
+     */
+    private boolean checkNotModified(ServletWebRequest webRequest, String repository, String hub) {
+        VersionRegistry.HubVersion hubVersion = versionRegistry.getHubVersion(repository, hub);
+        if (hubVersion == null) {
+            return false;
+        }
+        HttpServletRequest request = webRequest.getRequest();
+        String representation = request.getRequestURI() + "?" + request.getQueryString() + " " + request.getAttribute(HandlerMapping.PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE);
+        String eTag = "\"" + hubVersion.getTag() + "-" + DigestUtils.md5DigestAsHex(representation.getBytes(StandardCharsets.UTF_8)) + "\"";
+        if (!webRequest.checkNotModified(eTag, hubVersion.getLastModified())) {
+            return false;
+        }
+        HttpServletResponse response = webRequest.getResponse();
+        if (response != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        return true;
+    }
+
+    /**
+     * Starts successful response of hub data, cacheable by HTTP caches if it has validators (see {@link #checkNotModified}).
+     *
+     * @param webRequest Current request.
+     * @return Response builder with status 200.
+     */
+    private ResponseEntity.BodyBuilder ok(ServletWebRequest webRequest) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        HttpServletResponse response = webRequest.getResponse();
+        if (response != null && response.containsHeader(HttpHeaders.ETAG)) {
+            builder.cacheControl(cacheControl).varyBy(HttpHeaders.ACCEPT);
+        }
+        return builder;
+    }
+
+    private ResponseEntity.BodyBuilder withNextCursor(ResponseEntity.BodyBuilder builder, SearchPage<?> page) {
+        if (page.getNextCursor() != null) {
+            builder.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return builder;
+    }
+
     @Autowired
     public void setTrackFindService(TrackFindService trackFindService) {
         this.trackFindService = trackFindService;
@@ -209,4 +415,21 @@ public class TrackFindController {
         this.gSuiteService = gSuiteService;
     }
 
+    @Autowired
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        // every NDJSON record must fit on a single line, whatever the global indentation setting is
+        this.ndjsonWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    @Autowired
+    public void setVersionRegistry(VersionRegistry versionRegistry) {
+        this.versionRegistry = versionRegistry;
+    }
+
+    @Value("${trackfind.http.max-age}")
+    public void setMaxAge(long maxAge) {
+        this.cacheControl = CacheControl.maxAge(maxAge, TimeUnit.SECONDS).cachePublic().mustRevalidate();
+    }
+
 }
@@ -0,0 +1,487 @@
+package no.uio.ifi.trackfind.backend.data;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import org.apache.commons.lang3.StringUtils;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+
+/**
+ * Immutable flat metamodel of a hub (attributes with their values, by category), loaded once per version.
+ * Filtered views are computed from it on demand instead of being loaded and cached per filter.
+ * <p>
+ * Strings are dictionary-encoded: every distinct attribute path and value is stored once and referenced by int ID.
+ * Values of attributes are kept in CSR form: attributes of the category are sorted by path,
+ * values of i-th attribute are {@code values[offsets[i]] .. values[offsets[i + 1] - 1]}.
+ * Attribute paths are also kept in a trie, so that sub-attribute lookups take time proportional to the depth of the path
+ * (times the number of siblings, as segments are compared ignoring case).
+ * Substring filters are served by a trigram index over the dictionary, so they don't scan all attributes and values.
+ */
+public class MetamodelSnapshot {
+
+    private static final int NULL_ID = -1;
+
+    private final String separator;
+    private final String[] dictionary;
+    private final TrigramIndex dictionaryIndex;
+    private final boolean dictionaryShared;
+    private final Map<String, Category> categories;
+
+    private MetamodelSnapshot(String separator, String[] dictionary, TrigramIndex dictionaryIndex, boolean dictionaryShared, Map<String, Category> categories) {
+        this.separator = separator;
+        this.dictionary = dictionary;
+        this.dictionaryIndex = dictionaryIndex;
+        this.dictionaryShared = dictionaryShared;
+        this.categories = categories;
+    }
+
+    /**
+     * Gets names of categories present in the metamodel.
+     *
+     * @return Category names.
+     */
+    public Collection<String> getCategories() {
+        return Collections.unmodifiableSet(categories.keySet());
+    }
+
+    /**
+     * Gets attribute paths of the category.
+     *
+     * @param category Category name.
+     * @return Attribute paths, sorted.
+     */
+    public List<String> getAttributes(String category) {
+        Category values = categories.get(category);
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>(values.attributes.length);
+        for (int attribute : values.attributes) {
+            result.add(dictionary[attribute]);
+        }
+        return result;
+    }
+
+    /**
+     * Gets names of direct sub-attributes of the path. The path is matched case-insensitively.
+     *
+     * @param category Category name.
+     * @param path     Attribute path (empty for top-level attributes).
+     * @return Sub-attribute names, sorted.
+     */
+    public Collection<String> getChildAttributes(String category, String path) {
+        Category values = categories.get(category);
+        List<PathNode> nodes = findPathNodesIgnoreCase(values, path);
+        if (nodes.size() == 1 && values.visible == null) {
+            return Collections.unmodifiableSet(nodes.get(0).children.keySet());
+        }
+        Set<String> result = new TreeSet<>();
+        nodes.forEach(node -> node.children.forEach((name, child) -> {
+            if (values.isVisible(child)) {
+                result.add(name);
+            }
+        }));
+        return result;
+    }
+
+    /**
+     * Gets paths of all attributes having values under the path, relative to the path. The path is matched case-insensitively.
+     *
+     * @param category Category name.
+     * @param path     Attribute path (empty for all attributes).
+     * @return Relative attribute paths.
+     */
+    public List<String> getAttributesFlat(String category, String path) {
+        Category values = categories.get(category);
+        List<String> result = new ArrayList<>();
+        for (PathNode node : findPathNodesIgnoreCase(values, path)) {
+            node.children.forEach((name, child) -> values.collect(child, name, result));
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the path is an attribute or a prefix of one.
+     *
+     * @param category Category name.
+     * @param path     Attribute path.
+     * @return true if there are attributes at or under the path.
+     */
+    public boolean containsPath(String category, String path) {
+        return findPathNode(categories.get(category), path) != null;
+    }
+
+    /**
+     * Checks whether the attribute has values.
+     *
+     * @param category  Category name.
+     * @param attribute Attribute path.
+     * @return true if the attribute has values.
+     */
+    public boolean containsAttribute(String category, String attribute) {
+        Category values = categories.get(category);
+        PathNode node = findPathNode(values, attribute);
+        return node != null && values.isAttribute(node);
+    }
+
+    /**
+     * Gets values of the attribute.
+     *
+     * @param category  Category name.
+     * @param attribute Attribute path.
+     * @return Values of the attribute.
+     */
+    public Collection<String> getValues(String category, String attribute) {
+        return getValues(category, attribute, null, null);
+    }
+
+    /**
+     * Gets values of the attribute, given that the attribute and the values pass the filters.
+     *
+     * @param category         Category name.
+     * @param attribute        Attribute path.
+     * @param attributesFilter Attributes filter (optional).
+     * @param valuesFilter     Values filter (optional).
+     * @return Values of the attribute.
+     */
+    public Collection<String> getValues(String category, String attribute, String attributesFilter, String valuesFilter) {
+        Category values = categories.get(category);
+        if (values == null || !matches(attribute, attributesFilter)) {
+            return Collections.emptySet();
+        }
+        int index = values.indexOf(attribute);
+        if (index < 0) {
+            return Collections.emptySet();
+        }
+        Set<String> result = new HashSet<>();
+        for (int i = values.offsets[index]; i < values.offsets[index + 1]; i++) {
+            int value = values.values[i];
+            if (StringUtils.isEmpty(valuesFilter) || value != NULL_ID && matches(dictionary[value], valuesFilter)) {
+                result.add(value == NULL_ID ? null : dictionary[value]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets view of the metamodel restricted to attributes and values containing given substrings (case-insensitive).
+     * The view shares the dictionary and the attribute path tries with this snapshot.
+     *
+     * @param attributesFilter Attributes filter (optional).
+     * @param valuesFilter     Values filter (optional).
+     * @return Filtered metamodel. Categories and attributes without matches are omitted.
+     */
+    public MetamodelSnapshot filter(String attributesFilter, String valuesFilter) {
+        if (StringUtils.isAllEmpty(attributesFilter, valuesFilter)) {
+            return this;
+        }
+        // each distinct string is looked up once, no matter how many attributes share it
+        RoaringBitmap matchingAttributes = StringUtils.isEmpty(attributesFilter) ? null : dictionaryIndex.find(attributesFilter);
+        RoaringBitmap matchingValues = StringUtils.isEmpty(valuesFilter) ? null : dictionaryIndex.find(valuesFilter);
+        Map<String, Category> result = new HashMap<>();
+        for (Map.Entry<String, Category> entry : categories.entrySet()) {
+            Category filtered = entry.getValue().filter(matchingAttributes, matchingValues);
+            if (filtered.attributes.length != 0) {
+                result.put(entry.getKey(), filtered);
+            }
+        }
+        return new MetamodelSnapshot(separator, dictionary, dictionaryIndex, true, result);
+    }
+
+    /**
+     * Converts the metamodel to multimaps.
+     *
+     * @return Values by attribute, by category.
+     */
+    public Map<String, Multimap<String, String>> toMultimaps() {
+        Map<String, Multimap<String, String>> result = new HashMap<>();
+        for (String category : categories.keySet()) {
+            Multimap<String, String> multimap = HashMultimap.create();
+            for (String attribute : getAttributes(category)) {
+                multimap.putAll(attribute, getValues(category, attribute));
+            }
+            result.put(category, multimap);
+        }
+        return result;
+    }
+
+    /**
+     * Estimates heap size of the snapshot. Views returned by {@link #filter(String, String)} are estimated without
+     * the dictionary, its index and the tries they share with the snapshot.
+     *
+     * @return Estimated size in bytes.
+     */
+    public long estimateSize() {
+        long size = 0;
+        if (!dictionaryShared) {
+            for (String string : dictionary) {
+                size += 48 + 2L * string.length();
+            }
+            size += dictionaryIndex.estimateSize();
+        }
+        for (Category category : categories.values()) {
+            size += category.estimateSize();
+        }
+        return size;
+    }
+
+    private boolean matches(String string, String filter) {
+        return StringUtils.isEmpty(filter) || StringUtils.containsIgnoreCase(string, filter);
+    }
+
+    private PathNode findPathNode(Category values, String path) {
+        if (values == null) {
+            return null;
+        }
+        PathNode node = values.paths;
+        if (StringUtils.isEmpty(path)) {
+            return node;
+        }
+        for (String name : StringUtils.splitByWholeSeparatorPreserveAllTokens(path, separator)) {
+            node = node.children.get(name);
+            if (node == null || !values.isVisible(node)) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Walks the trie ignoring case of path segments: several nodes match when attribute names differ only in case.
+     */
+    private List<PathNode> findPathNodesIgnoreCase(Category values, String path) {
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        List<PathNode> nodes = Collections.singletonList(values.paths);
+        if (StringUtils.isEmpty(path)) {
+            return nodes;
+        }
+        for (String name : StringUtils.splitByWholeSeparatorPreserveAllTokens(path, separator)) {
+            List<PathNode> next = new ArrayList<>();
+            for (PathNode node : nodes) {
+                PathNode exact = node.children.get(name);
+                if (exact != null && values.isVisible(exact)) {
+                    next.add(exact);
+                }
+                node.children.forEach((childName, child) -> {
+                    if (child != exact && childName.equalsIgnoreCase(name) && values.isVisible(child)) {
+                        next.add(child);
+                    }
+                });
+            }
+            if (next.isEmpty()) {
+                return Collections.emptyList();
+            }
+            nodes = next;
+        }
+        return nodes;
+    }
+
+    private class PathNode {
+
+        private final PathNode parent;
+        private final Map<String, PathNode> children = new TreeMap<>();
+        private boolean attribute;
+
+        private PathNode(PathNode parent) {
+            this.parent = parent;
+        }
+
+        private PathNode add(String attribute) {
+            PathNode node = this;
+            for (String name : StringUtils.splitByWholeSeparatorPreserveAllTokens(attribute, separator)) {
+                PathNode current = node;
+                node = node.children.computeIfAbsent(name, k -> new PathNode(current));
+            }
+            node.attribute = true;
+            return node;
+        }
+
+        private long estimateSize() {
+            long size = 64;
+            for (Map.Entry<String, PathNode> entry : children.entrySet()) {
+                size += 88 + 2L * entry.getKey().length() + entry.getValue().estimateSize();
+            }
+            return size;
+        }
+
+    }
+
+    private class Category {
+
+        private final int[] attributes;
+        private final int[] offsets;
+        private final int[] values;
+        private final PathNode paths;
+        private final PathNode[] nodes; // trie nodes of the attributes
+
+        /**
+         * Nodes of the shared trie with attributes of the view under them, mapped to whether the node itself is
+         * an attribute of the view. Null if all the nodes are visible, i.e. this is not a filtered view.
+         */
+        private final Map<PathNode, Boolean> visible;
+
+        private Category(int[] attributes, int[] offsets, int[] values) {
+            this.attributes = attributes;
+            this.offsets = offsets;
+            this.values = values;
+            this.paths = new PathNode(null);
+            this.nodes = new PathNode[attributes.length];
+            for (int i = 0; i < attributes.length; i++) {
+                nodes[i] = paths.add(dictionary[attributes[i]]);
+            }
+            this.visible = null;
+        }
+
+        private Category(int[] attributes, int[] offsets, int[] values, PathNode paths, PathNode[] nodes) {
+            this.attributes = attributes;
+            this.offsets = offsets;
+            this.values = values;
+            this.paths = paths;
+            this.nodes = nodes;
+            this.visible = new IdentityHashMap<>();
+            for (PathNode node : nodes) {
+                visible.put(node, true);
+                for (PathNode parent = node.parent; parent != null && !visible.containsKey(parent); parent = parent.parent) {
+                    visible.put(parent, false);
+                }
+            }
+        }
+
+        private boolean isVisible(PathNode node) {
+            return visible == null || visible.containsKey(node);
+        }
+
+        private boolean isAttribute(PathNode node) {
+            return visible == null ? node.attribute : visible.getOrDefault(node, false);
+        }
+
+        private void collect(PathNode node, String path, List<String> result) {
+            if (!isVisible(node)) {
+                return;
+            }
+            if (isAttribute(node)) {
+                result.add(path);
+            }
+            node.children.forEach((name, child) -> collect(child, path + separator + name, result));
+        }
+
+        private long estimateSize() {
+            long size = 4L * (attributes.length + offsets.length + values.length) + 8L * nodes.length;
+            return size + (visible == null ? paths.estimateSize() : 48L * visible.size());
+        }
+
+        private int indexOf(String attribute) {
+            int low = 0;
+            int high = attributes.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = dictionary[attributes[middle]].compareTo(attribute);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        private Category filter(RoaringBitmap matchingAttributes, RoaringBitmap matchingValues) {
+            int[] filteredAttributes = new int[attributes.length];
+            PathNode[] filteredNodes = new PathNode[attributes.length];
+            int[] filteredOffsets = new int[attributes.length + 1];
+            int[] filteredValues = new int[values.length];
+            int attributesCount = 0;
+            int valuesCount = 0;
+            for (int i = 0; i < attributes.length; i++) {
+                if (matchingAttributes != null && !matchingAttributes.contains(attributes[i])) {
+                    continue;
+                }
+                int start = valuesCount;
+                for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    int value = values[j];
+                    if (matchingValues == null || value != NULL_ID && matchingValues.contains(value)) {
+                        filteredValues[valuesCount++] = value;
+                    }
+                }
+                if (valuesCount != start) {
+                    filteredAttributes[attributesCount] = attributes[i];
+                    filteredNodes[attributesCount] = nodes[i];
+                    filteredOffsets[++attributesCount] = valuesCount;
+                }
+            }
+            return new Category(Arrays.copyOf(filteredAttributes, attributesCount),
+                    Arrays.copyOf(filteredOffsets, attributesCount + 1),
+                    Arrays.copyOf(filteredValues, valuesCount),
+                    paths,
+                    Arrays.copyOf(filteredNodes, attributesCount));
+        }
+
+    }
+
+    /**
+     * Collects (category, attribute, value) triples and encodes them into a snapshot.
+     */
+    public static class Builder {
+
+        private final String separator;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final Map<String, Map<Integer, Set<Integer>>> categories = new HashMap<>();
+
+        /**
+         * @param separator Separator of attribute path segments.
+         */
+        public Builder(String separator) {
+            this.separator = separator;
+        }
+
+        /**
+         * Adds value of the attribute.
+         *
+         * @param category  Category name.
+         * @param attribute Attribute path.
+         * @param value     Value (nullable).
+         * @return This builder.
+         */
+        public Builder add(String category, String attribute, String value) {
+            int attributeId = ids.computeIfAbsent(attribute, k -> ids.size());
+            int valueId = value == null ? NULL_ID : ids.computeIfAbsent(value, k -> ids.size());
+            categories.computeIfAbsent(category, k -> new HashMap<>()).computeIfAbsent(attributeId, k -> new HashSet<>()).add(valueId);
+            return this;
+        }
+
+        /**
+         * Builds the snapshot.
+         *
+         * @return Snapshot.
+         */
+        public MetamodelSnapshot build() {
+            String[] dictionary = new String[ids.size()];
+            ids.forEach((string, id) -> dictionary[id] = string);
+            MetamodelSnapshot snapshot = new MetamodelSnapshot(separator, dictionary, new TrigramIndex(dictionary), false, new HashMap<>());
+            categories.forEach((category, attributeValues) -> {
+                int[] attributes = attributeValues.keySet().stream()
+                        .sorted(Comparator.comparing(a -> dictionary[a]))
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+                int[] offsets = new int[attributes.length + 1];
+                int[] values = new int[attributeValues.values().stream().mapToInt(Set::size).sum()];
+                for (int i = 0; i < attributes.length; i++) {
+                    int offset = offsets[i];
+                    for (int value : attributeValues.get(attributes[i])) {
+                        values[offset++] = value;
+                    }
+                    offsets[i + 1] = offset;
+                }
+                snapshot.categories.put(category, snapshot.new Category(attributes, offsets, values));
+            });
+            return snapshot;
+        }
+
+    }
+
+}
@@ -22,6 +22,7 @@ public class TreeNode implements Comparable<TreeNode> {
     private boolean standard;
     private boolean array;
     private String type;
+    private Long count;
     private int level;
     private String separator;
     private TreeNode parent;
@@ -72,7 +73,7 @@ public class TreeNode implements Comparable<TreeNode> {
      */
     @Override
     public String toString() {
-        return (icon == null ? "" : icon + " ") + value;
+        return (icon == null ? "" : icon + " ") + value + (count == null ? "" : " (" + count + ")");
     }
 
 }
@@ -0,0 +1,123 @@
+package no.uio.ifi.trackfind.backend.data;
+
+import org.apache.commons.lang3.StringUtils;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Case-insensitive substring index over strings referenced by int ID: maps every trigram to the IDs of strings having it.
+ * Strings matching a filter of three or more characters are looked up by intersecting posting lists of its trigrams
+ * and verified afterwards. Shorter filters are matched against trigrams, of which there are far fewer than strings.
+ * Characters are case-folded the way {@link StringUtils#containsIgnoreCase(CharSequence, CharSequence)} compares them.
+ */
+class TrigramIndex {
+
+    private final String[] strings;
+    private final Map<Long, RoaringBitmap> postings = new HashMap<>();
+    private final RoaringBitmap shortStrings = new RoaringBitmap(); // strings without trigrams
+
+    /**
+     * @param strings Strings to index, by ID.
+     */
+    TrigramIndex(String[] strings) {
+        this.strings = strings;
+        for (int id = 0; id < strings.length; id++) {
+            String folded = fold(strings[id]);
+            if (folded.length() < 3) {
+                shortStrings.add(id);
+                continue;
+            }
+            for (int i = 0; i + 3 <= folded.length(); i++) {
+                postings.computeIfAbsent(trigram(folded, i), k -> new RoaringBitmap()).add(id);
+            }
+        }
+        postings.values().forEach(RoaringBitmap::runOptimize);
+    }
+
+    /**
+     * Finds strings containing the filter, ignoring case.
+     *
+     * @param filter Substring to look for (not empty).
+     * @return IDs of matching strings.
+     */
+    RoaringBitmap find(String filter) {
+        String folded = fold(filter);
+        RoaringBitmap result = new RoaringBitmap();
+        if (folded.length() < 3) {
+            // every trigram containing the filter stands for matching strings, no need to verify these
+            List<RoaringBitmap> matching = new ArrayList<>();
+            postings.forEach((trigram, posting) -> {
+                if (contains(trigram, folded)) {
+                    matching.add(posting);
+                }
+            });
+            result.or(FastAggregation.or(matching.iterator()));
+            shortStrings.forEach((int id) -> {
+                if (fold(strings[id]).contains(folded)) {
+                    result.add(id);
+                }
+            });
+            return result;
+        }
+        List<RoaringBitmap> required = new ArrayList<>();
+        for (int i = 0; i + 3 <= folded.length(); i++) {
+            RoaringBitmap posting = postings.get(trigram(folded, i));
+            if (posting == null) {
+                return result;
+            }
+            required.add(posting);
+        }
+        required.sort(Comparator.comparingInt(RoaringBitmap::getCardinality));
+        RoaringBitmap candidates = FastAggregation.and(required.iterator());
+        candidates.forEach((int id) -> {
+            if (StringUtils.containsIgnoreCase(strings[id], filter)) {
+                result.add(id);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Estimates heap size of the index, without the indexed strings.
+     *
+     * @return Estimated size in bytes.
+     */
+    long estimateSize() {
+        long size = shortStrings.getLongSizeInBytes();
+        for (RoaringBitmap posting : postings.values()) {
+            size += 80 + posting.getLongSizeInBytes();
+        }
+        return size;
+    }
+
+    private static String fold(String string) {
+        char[] chars = string.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    private static long trigram(String folded, int start) {
+        return (long) folded.charAt(start) << 32 | (long) folded.charAt(start + 1) << 16 | folded.charAt(start + 2);
+    }
+
+    private static boolean contains(long trigram, String folded) {
+        char first = (char) (trigram >>> 32);
+        char second = (char) (trigram >>> 16);
+        char third = (char) trigram;
+        char c = folded.charAt(0);
+        if (folded.length() == 1) {
+            return first == c || second == c || third == c;
+        }
+        char d = folded.charAt(1);
+        return first == c && second == d || second == c && third == d;
+    }
+
+}
@@ -2,7 +2,11 @@ package no.uio.ifi.trackfind.backend.data.providers;
 
 import alexh.weak.Dynamic;
 import com.google.common.collect.HashMultimap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 import lombok.extern.slf4j.Slf4j;
 import no.uio.ifi.trackfind.backend.events.DataReloadEvent;
 import no.uio.ifi.trackfind.backend.operations.Operation;
@@ -10,23 +14,30 @@ import no.uio.ifi.trackfind.backend.pojo.*;
 import no.uio.ifi.trackfind.backend.repositories.*;
 import no.uio.ifi.trackfind.backend.scripting.ScriptingEngine;
 import no.uio.ifi.trackfind.backend.services.impl.CacheService;
+import no.uio.ifi.trackfind.backend.services.impl.MetamodelExtractionService;
 import no.uio.ifi.trackfind.backend.services.impl.MetamodelService;
 import no.uio.ifi.trackfind.backend.services.impl.SchemaService;
 import no.uio.ifi.trackfind.backend.services.impl.SearchService;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -39,24 +50,32 @@ import java.util.stream.Collectors;
 @Transactional
 public abstract class AbstractDataProvider implements DataProvider {
 
+    private static final Pair<String, String> END_OF_OBJECTS = Pair.of(null, null);
+
     @Value("${trackfind.separator}")
     protected String separator;
 
     @Value("${trackfind.scripting.language}")
     protected String scriptingLanguage;
 
+    @Value("${trackfind.crawling.batch-size}")
+    protected int batchSize;
+
     protected ApplicationEventPublisher applicationEventPublisher;
     protected MetamodelService metamodelService;
     protected SchemaService schemaService;
     protected CacheService cacheService;
     protected SearchService searchService;
+    protected MetamodelExtractionService metamodelExtractionService;
     protected JdbcTemplate jdbcTemplate;
+    protected EntityManager entityManager;
     protected HubRepository hubRepository;
     protected ObjectTypeRepository objectTypeRepository;
     protected VersionRepository versionRepository;
     protected ObjectRepository objectRepository;
     protected ReferenceRepository referenceRepository;
     protected ExecutorService executorService;
+    protected ExecutorService fetchingExecutorService;
     protected Gson gson;
     protected Collection<ScriptingEngine> scriptingEngines;
 
@@ -85,36 +104,27 @@ public abstract class AbstractDataProvider implements DataProvider {
     }
 
     /**
-     * Fetches data from the repository.
+     * Fetches data from the repository, handing objects to the sink as soon as they are read.
      *
+     * @param hubName Hub name.
+     * @param sink    Sink for fetched objects.
      * @throws Exception in case of some problems.
      */
-    protected abstract void fetchData(String hubName) throws Exception;
+    protected abstract void fetchData(String hubName, ObjectSink sink) throws Exception;
 
     /**
      * {@inheritDoc}
      */
-    @CacheEvict(cacheNames = {
-            "metamodel-array-of-objects-attributes",
-            "metamodel-flat",
-            "metamodel-tree",
-            "metamodel-categories",
-            "metamodel-attributes",
-            "metamodel-attributes-flat",
-            "metamodel-attribute-types",
-            "metamodel-values",
-            "metamodel-references",
-            "metamodel-categories-by-name",
-            "search",
-            "gsuite"
-    }, allEntries = true)
     @Override
     public synchronized void crawlRemoteRepository(String hubName) {
         log.info("Fetching data for {}: {}", getName(), hubName);
         try {
-            fetchData(hubName);
+            save(hubName);
             applicationEventPublisher.publishEvent(new DataReloadEvent(getName(), Operation.CRAWLING));
         } catch (Exception e) {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            }
             log.error(e.getMessage(), e);
             return;
         }
@@ -122,29 +132,116 @@ public abstract class AbstractDataProvider implements DataProvider {
     }
 
     /**
-     * Saves datasets to the database.
+     * Fetches data and saves it to a new version of the hub.
+     * Fetching runs in another thread and hands objects over through a bounded queue, while the current thread
+     * (holding the transaction) saves them in batches. So memory usage depends on the batch size, not on the size of the data.
+     * Objects of a category are saved once, even if fetched repeatedly: only hashes of their content are kept for that.
      *
      * @param hubName Hub name.
-     * @param objects Object-type to object map.
+     * @throws Exception in case fetching or saving fails.
      */
-    protected void save(String hubName, Map<String, Collection<String>> objects) {
+    protected void save(String hubName) throws Exception {
         TfVersion version = createVersion(hubName, Operation.CRAWLING, false);
 
-        Set<String> standardObjectTypeNames = new HashSet<>(schemaService.getAttributes().keySet());
-        Collection<TfObject> objectsToSave = new ArrayList<>();
-        for (String objectTypeName : objects.keySet()) {
-            standardObjectTypeNames.remove(objectTypeName);
-            TfObjectType objectType = createObjectType(version, objectTypeName);
-            for (String obj : objects.get(objectTypeName)) {
+        BlockingQueue<Pair<String, String>> queue = new ArrayBlockingQueue<>(batchSize);
+        AtomicBoolean saving = new AtomicBoolean(true);
+        ObjectSink sink = (objectTypeName, content) -> handOver(queue, Pair.of(objectTypeName, content), saving);
+        Future<?> fetching = fetchingExecutorService.submit(() -> {
+            try {
+                fetchData(hubName, sink);
+            } finally {
+                handOver(queue, END_OF_OBJECTS, saving);
+            }
+            return null;
+        });
+        try {
+            Map<String, TfObjectType> objectTypes = new HashMap<>();
+            Map<String, Set<HashCode>> savedContents = new HashMap<>();
+            List<TfObject> batch = new ArrayList<>(batchSize);
+            long total = 0;
+            long duplicates = 0;
+            for (Pair<String, String> object = queue.take(); object != END_OF_OBJECTS; object = queue.take()) {
+                HashCode contentHash = Hashing.murmur3_128().hashUnencodedChars(object.getValue());
+                if (!savedContents.computeIfAbsent(object.getKey(), k -> new HashSet<>()).add(contentHash)) {
+                    duplicates++;
+                    continue;
+                }
                 TfObject tfObject = new TfObject();
-                tfObject.setObjectType(objectType);
-                tfObject.setContent(obj);
-                objectsToSave.add(tfObject);
+                tfObject.setObjectType(objectTypes.computeIfAbsent(object.getKey(), k -> createObjectType(version, k)));
+                tfObject.setContent(object.getValue());
+                batch.add(tfObject);
+                if (batch.size() == batchSize) {
+                    total += saveBatch(batch);
+                }
+            }
+            total += saveBatch(batch);
+            awaitAll(Collections.singleton(fetching));
+            log.info("{} objects saved, {} duplicates skipped.", total, duplicates);
+
+            // create standard object-types, if not present yet
+            Set<String> standardObjectTypeNames = new HashSet<>(schemaService.getAttributes().keySet());
+            standardObjectTypeNames.removeAll(objectTypes.keySet());
+            standardObjectTypeNames.forEach(sotn -> objectTypeRepository.save(createObjectType(version, sotn)));
+        } finally {
+            saving.set(false);
+        }
+    }
+
+    /**
+     * Puts the object to the queue, waiting while it's full. Fetching runs in pooled threads, which are not interrupted
+     * when saving fails, so instead of blocking forever on a queue nobody drains, this gives up once saving has stopped.
+     */
+    private void handOver(BlockingQueue<Pair<String, String>> queue, Pair<String, String> object, AtomicBoolean saving) throws InterruptedException {
+        while (!queue.offer(object, 1, TimeUnit.SECONDS)) {
+            if (!saving.get()) {
+                throw new InterruptedException("Saving of fetched objects has stopped");
+            }
+        }
+    }
+
+    /**
+     * Waits for fetching tasks to complete.
+     *
+     * @param tasks Tasks submitted to an executor.
+     * @throws Exception the first failure of the tasks, so that the crawl fails as a whole instead of saving partial data.
+     */
+    protected void awaitAll(Collection<? extends Future<?>> tasks) throws Exception {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
             }
         }
-        // create standard object-types, if not present yet
-        standardObjectTypeNames.forEach(sotn -> objectTypeRepository.save(createObjectType(version, sotn)));
-        objectRepository.saveAll(objectsToSave);
+    }
+
+    private int saveBatch(List<TfObject> batch) {
+        int size = batch.size();
+        if (size != 0) {
+            metamodelExtractionService.extractAndSave(objectRepository.saveAll(batch));
+            // saved objects are not needed anymore: don't let the persistence context grow with the data
+            entityManager.flush();
+            entityManager.clear();
+            batch.clear();
+        }
+        return size;
+    }
+
+    /**
+     * Reads JSON array at the current position of the reader, handing its elements to the sink one by one.
+     *
+     * @param reader         JSON reader.
+     * @param objectTypeName Object type name.
+     * @param sink           Sink for read objects.
+     * @throws IOException          in case of reading problems.
+     * @throws InterruptedException if interrupted while handing objects over.
+     */
+    protected void readArray(JsonReader reader, String objectTypeName, ObjectSink sink) throws IOException, InterruptedException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            sink.accept(objectTypeName, gson.toJson(JsonParser.parseReader(reader)));
+        }
+        reader.endArray();
     }
 
     protected TfObjectType createObjectType(TfVersion version, String objectTypeName) {
@@ -196,20 +293,6 @@ public abstract class AbstractDataProvider implements DataProvider {
     /**
      * {@inheritDoc}
      */
-    @CacheEvict(cacheNames = {
-            "metamodel-array-of-objects-attributes",
-            "metamodel-flat",
-            "metamodel-tree",
-            "metamodel-categories",
-            "metamodel-attributes",
-            "metamodel-attributes-flat",
-            "metamodel-attribute-types",
-            "metamodel-values",
-            "metamodel-references",
-            "metamodel-categories-by-name",
-            "search",
-            "gsuite"
-    }, allEntries = true)
     @Override
     public synchronized void runCuration(String hubName) {
         log.info("Curating {} - {}...", getName(), hubName);
@@ -217,7 +300,7 @@ public abstract class AbstractDataProvider implements DataProvider {
             Collection<TfMapping> mappings = metamodelService.getMappings(getName(), hubName);
             HashMultimap<TfObjectType, TfMapping> mappingsByCategories = HashMultimap.create();
             mappings.forEach(m -> mappingsByCategories.put(m.getToObjectType(), m));
-            Collection<SearchResult> allEntries = searchService.search(getName(), hubName, Boolean.TRUE.toString(), Collections.emptySet(), 0).getValue();
+            Collection<SearchResult> allEntries = searchService.search(getName(), hubName, Boolean.TRUE.toString(), Collections.emptySet(), 0, null).getResults();
             for (TfMapping mapping : mappings) {
                 if (mapping.getFromObjectType() != null) {
                     runStaticMappings(allEntries, mapping);
@@ -258,7 +341,7 @@ public abstract class AbstractDataProvider implements DataProvider {
             }
             return result;
         }).flatMap(List::stream).collect(Collectors.toList());
-        objectRepository.saveAll(objectsToSave);
+        metamodelExtractionService.extractAndSave(objectRepository.saveAll(objectsToSave));
     }
 
     @SuppressWarnings("unchecked")
@@ -320,6 +403,11 @@ public abstract class AbstractDataProvider implements DataProvider {
         this.metamodelService = metamodelService;
     }
 
+    @Autowired
+    public void setMetamodelExtractionService(MetamodelExtractionService metamodelExtractionService) {
+        this.metamodelExtractionService = metamodelExtractionService;
+    }
+
     @Autowired
     public void setSchemaService(SchemaService schemaService) {
         this.schemaService = schemaService;
@@ -340,6 +428,11 @@ public abstract class AbstractDataProvider implements DataProvider {
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    @PersistenceContext
+    public void setEntityManager(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
     @Autowired
     public void setHubRepository(HubRepository hubRepository) {
         this.hubRepository = hubRepository;
@@ -370,6 +463,11 @@ public abstract class AbstractDataProvider implements DataProvider {
         this.executorService = workStealingPool;
     }
 
+    @Autowired
+    public void setFetchingExecutorService(ExecutorService workStealingPool) {
+        this.fetchingExecutorService = workStealingPool;
+    }
+
     @Autowired
     public void setGson(Gson gson) {
         this.gson = gson;
@@ -0,0 +1,19 @@
+package no.uio.ifi.trackfind.backend.data.providers;
+
+/**
+ * Receives objects of a hub being crawled, one at a time.
+ */
+@FunctionalInterface
+public interface ObjectSink {
+
+    /**
+     * Accepts an object. Blocks while the queue of objects waiting to be saved is full.
+     * Can be called from several threads.
+     *
+     * @param objectTypeName Object type (category) name.
+     * @param content        Object as JSON.
+     * @throws InterruptedException if interrupted while waiting, e.g. because saving failed.
+     */
+    void accept(String objectTypeName, String content) throws InterruptedException;
+
+}
@@ -1,17 +1,19 @@
 package no.uio.ifi.trackfind.backend.data.providers.blueprint;
 
-import com.google.common.collect.HashMultimap;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 import lombok.extern.slf4j.Slf4j;
 import no.uio.ifi.trackfind.backend.data.providers.AbstractDataProvider;
+import no.uio.ifi.trackfind.backend.data.providers.ObjectSink;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
+import java.util.Collection;
 
 /**
  * Draft of Data Provider for Blueprint (TrackHubRegistry).
@@ -23,6 +25,9 @@ import java.util.Map;
 @Transactional
 public class BlueprintDataProvider extends AbstractDataProvider {
 
+    private static final Collection<String> CATEGORIES = Arrays.asList("studies", "experiments", "samples", "tracks");
+    private static final Collection<String> INFO_CATEGORIES = Arrays.asList("doc_info", "collection_info");
+
     /**
      * {@inheritDoc}
      */
@@ -34,25 +39,23 @@ public class BlueprintDataProvider extends AbstractDataProvider {
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("rawtypes")
     @Override
-    protected void fetchData(String hubName) {
-        HashMultimap<String, String> mapToSave = HashMultimap.create();
+    protected void fetchData(String hubName, ObjectSink sink) throws IOException, InterruptedException {
         try (InputStream inputStream = new URL(getFetchURI(hubName)).openStream();
-             InputStreamReader reader = new InputStreamReader(inputStream)) {
-            Map topMap = gson.fromJson(reader, Map.class);
-            for (String category : Arrays.asList("studies", "experiments", "samples", "tracks")) {
-                List objects = (List) topMap.get(category);
-                for (Object object : objects) {
-                    mapToSave.put(category, gson.toJson(object));
+             InputStreamReader reader = new InputStreamReader(inputStream);
+             JsonReader jsonReader = new JsonReader(reader)) {
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                String name = jsonReader.nextName();
+                if (CATEGORIES.contains(name)) {
+                    readArray(jsonReader, name, sink);
+                } else if (INFO_CATEGORIES.contains(name)) {
+                    sink.accept(name, gson.toJson(JsonParser.parseReader(jsonReader)));
+                } else {
+                    jsonReader.skipValue();
                 }
             }
-            mapToSave.put("doc_info", gson.toJson(topMap.get("doc_info")));
-            mapToSave.put("collection_info", gson.toJson(topMap.get("collection_info")));
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
         }
-        save(hubName, mapToSave.asMap());
     }
 
 }
@@ -1,18 +1,20 @@
 package no.uio.ifi.trackfind.backend.data.providers.encode;
 
-import com.google.common.collect.HashMultimap;
+import com.google.gson.stream.JsonReader;
 import lombok.extern.slf4j.Slf4j;
 import no.uio.ifi.trackfind.backend.data.providers.AbstractDataProvider;
+import no.uio.ifi.trackfind.backend.data.providers.ObjectSink;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Data Provider for ENCODE.
@@ -40,31 +42,29 @@ public class ENCODEDataProvider extends AbstractDataProvider {
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     @Override
-    protected void fetchData(String hubName) throws InterruptedException {
-        CountDownLatch countDownLatch = new CountDownLatch(AVAILABLE_TYPES.size());
-        HashMultimap<String, String> mapToSave = HashMultimap.create();
+    protected void fetchData(String hubName, ObjectSink sink) throws Exception {
+        List<Future<?>> tasks = new ArrayList<>();
         for (String type : AVAILABLE_TYPES) {
-            executorService.submit(() -> {
+            tasks.add(executorService.submit(() -> {
                 try (InputStream inputStream = new URL(String.format(getFetchURI(hubName), type)).openStream();
-                     InputStreamReader reader = new InputStreamReader(inputStream)) {
+                     InputStreamReader reader = new InputStreamReader(inputStream);
+                     JsonReader jsonReader = new JsonReader(reader)) {
                     log.info("Processing type: {}", type);
-                    Map all = gson.fromJson(reader, Map.class);
-                    Collection<Map> objects = (Collection<Map>) all.get("@graph");
-                    for (Map object : objects) {
-                        mapToSave.put(hubName + "_" + type, gson.toJson(object));
+                    jsonReader.beginObject();
+                    while (jsonReader.hasNext()) {
+                        if ("@graph".equals(jsonReader.nextName())) {
+                            readArray(jsonReader, hubName + "_" + type, sink);
+                        } else {
+                            jsonReader.skipValue();
+                        }
                     }
                     log.info("{} processed", type);
-                } catch (Exception e) {
-                    log.error(e.getMessage(), e);
-                } finally {
-                    countDownLatch.countDown();
                 }
-            });
+                return null;
+            }));
         }
-        countDownLatch.await();
-        save(hubName, mapToSave.asMap());
+        awaitAll(tasks);
     }
 
 }
@@ -1,8 +1,8 @@
 package no.uio.ifi.trackfind.backend.data.providers.fantom;
 
-import com.google.common.collect.HashMultimap;
 import lombok.extern.slf4j.Slf4j;
 import no.uio.ifi.trackfind.backend.data.providers.AbstractDataProvider;
+import no.uio.ifi.trackfind.backend.data.providers.ObjectSink;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -17,8 +17,8 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -43,54 +43,44 @@ public class FANTOMDataProvider extends AbstractDataProvider {
      * {@inheritDoc}
      */
     @Override
-    protected void fetchData(String hubName) throws Exception {
+    protected void fetchData(String hubName, ObjectSink sink) throws Exception {
         log.info("Collecting directories...");
         String fetchURI = getFetchURI(hubName);
         Document root = Jsoup.parse(new URL(fetchURI), 10000);
         Set<String> dirs = root.getElementsByTag("a").parallelStream().map(e -> e.attr("href")).filter(s -> s.contains(".") && s.endsWith("/")).collect(Collectors.toSet());
         int size = dirs.size();
         log.info(size + " directories to process");
-        CountDownLatch countDownLatch = new CountDownLatch(size);
-        Collection<Map> allTracks = new HashSet<>();
+        List<Future<?>> tasks = new ArrayList<>();
         for (String dir : dirs) {
-            executorService.submit(() -> {
-                try {
-                    Document folder = Jsoup.parse(new URL(fetchURI + dir), 10000);
-                    Set<String> allFiles = folder.getElementsByTag("a").parallelStream().map(e -> e.attr("href")).collect(Collectors.toSet());
-                    Optional<String> metadataFileOptional = allFiles.parallelStream().filter(s -> s.endsWith("_sdrf.txt")).findAny();
-                    if (!metadataFileOptional.isPresent()) {
-                        return;
-                    }
-                    URL url = new URL(fetchURI + dir + metadataFileOptional.get());
-                    try (InputStream inputStream = url.openStream();
-                         Reader reader = new InputStreamReader(inputStream);
-                         CSVParser parser = new CSVParser(reader, CSVFormat.newFormat('\t').withSkipHeaderRecord())) {
-                        List<CSVRecord> records = parser.getRecords();
-                        Iterator<CSVRecord> recordIterator = records.iterator();
-                        CSVRecord header = recordIterator.next();
-                        String[] attributes = parseAttributes(header);
-                        while (recordIterator.hasNext()) {
-                            Map<String, Object> map = new HashMap<>();
-                            CSVRecord next = recordIterator.next();
-                            for (int i = 0; i < attributes.length; i++) {
-                                map.put(attributes[i], next.get(i));
-                            }
-                            allTracks.add(map);
+            tasks.add(executorService.submit(() -> {
+                Document folder = Jsoup.parse(new URL(fetchURI + dir), 10000);
+                Set<String> allFiles = folder.getElementsByTag("a").parallelStream().map(e -> e.attr("href")).collect(Collectors.toSet());
+                Optional<String> metadataFileOptional = allFiles.parallelStream().filter(s -> s.endsWith("_sdrf.txt")).findAny();
+                if (!metadataFileOptional.isPresent()) {
+                    return null;
+                }
+                URL url = new URL(fetchURI + dir + metadataFileOptional.get());
+                try (InputStream inputStream = url.openStream();
+                     Reader reader = new InputStreamReader(inputStream);
+                     CSVParser parser = new CSVParser(reader, CSVFormat.newFormat('\t').withSkipHeaderRecord())) {
+                    Iterator<CSVRecord> recordIterator = parser.iterator();
+                    CSVRecord header = recordIterator.next();
+                    String[] attributes = parseAttributes(header);
+                    while (recordIterator.hasNext()) {
+                        Map<String, Object> map = new HashMap<>();
+                        CSVRecord next = recordIterator.next();
+                        for (int i = 0; i < attributes.length; i++) {
+                            map.put(attributes[i], next.get(i));
                         }
-                        log.info("Directory " + dir + " processed.");
+                        sink.accept(hubName + "_tracks", gson.toJson(map));
                     }
-                } catch (Exception e) {
-                    log.error(e.getMessage(), e);
-                } finally {
-                    countDownLatch.countDown();
+                    log.info("Directory " + dir + " processed.");
                 }
-            });
+                return null;
+            }));
         }
-        countDownLatch.await();
-        HashMultimap<String, String> mapToSave = HashMultimap.create();
-        allTracks.stream().map(t -> gson.toJson(t)).forEach(t -> mapToSave.put(hubName + "_tracks", t));
-        save(hubName, mapToSave.asMap());
-        log.info(size + " releases stored.");
+        awaitAll(tasks);
+        log.info(size + " directories fetched.");
     }
 
     /**
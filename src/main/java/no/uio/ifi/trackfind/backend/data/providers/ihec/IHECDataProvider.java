@@ -1,10 +1,12 @@
 package no.uio.ifi.trackfind.backend.data.providers.ihec;
 
-import com.google.common.collect.HashMultimap;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 import lombok.extern.slf4j.Slf4j;
 import no.uio.ifi.trackfind.backend.data.providers.AbstractDataProvider;
-import org.apache.commons.collections4.MapUtils;
+import no.uio.ifi.trackfind.backend.data.providers.ObjectSink;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
@@ -17,10 +19,11 @@ import java.net.URL;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -74,9 +77,8 @@ public class IHECDataProvider extends AbstractDataProvider {
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     @Override
-    protected void fetchData(String hubName) throws InterruptedException, NoSuchAlgorithmException, KeyManagementException {
+    protected void fetchData(String hubName, ObjectSink sink) throws Exception {
         disableSSL();
         log.info("Collecting releases...");
         Collection<Release> releases;
@@ -84,9 +86,6 @@ public class IHECDataProvider extends AbstractDataProvider {
              InputStreamReader reader = new InputStreamReader(inputStream)) {
             releases = gson.fromJson(reader, new TypeToken<Collection<Release>>() {
             }.getType());
-        } catch (IOException e) {
-            log.error(e.getMessage(), e);
-            return;
         }
         if (CollectionUtils.isEmpty(releases)) {
             return;
@@ -94,40 +93,51 @@ public class IHECDataProvider extends AbstractDataProvider {
         int size = releases.size();
         log.info("{} releases to process.", size);
         Set<Integer> releaseIds = releases.parallelStream().sorted().map(Release::getId).collect(Collectors.toSet());
-        CountDownLatch countDownLatch = new CountDownLatch(size);
-        HashMultimap<String, String> mapToSave = HashMultimap.create();
+        List<Future<?>> tasks = new ArrayList<>();
         for (int releaseId : releaseIds) {
-            executorService.submit(() -> {
+            tasks.add(executorService.submit(() -> {
                 try (InputStream inputStream = new URL(getFetchURI(hubName) + releaseId).openStream();
-                     InputStreamReader reader = new InputStreamReader(inputStream)) {
-                    Map grid = gson.fromJson(reader, Map.class);
-                    Map<String, Map> datasetsMap = MapUtils.getMap(grid, "datasets");
-                    for (Map.Entry<String, Map> entry : datasetsMap.entrySet()) {
-                        entry.getValue().put("tf_dataset_id", entry.getKey());
-                    }
-                    Collection<Map> datasets = datasetsMap.values();
-                    for (Map dataset : datasets) {
-                        mapToSave.put(hubName + "_dataset", gson.toJson(dataset));
-                    }
-                    Map<String, Map> samplesMap = MapUtils.getMap(grid, "samples");
-                    for (Map.Entry<String, Map> entry : samplesMap.entrySet()) {
-                        entry.getValue().put("tf_sample_id", entry.getKey());
-                    }
-                    Collection<Map> samples = samplesMap.values();
-                    for (Map sample : samples) {
-                        mapToSave.put(hubName + "_sample", gson.toJson(sample));
+                     InputStreamReader reader = new InputStreamReader(inputStream);
+                     JsonReader jsonReader = new JsonReader(reader)) {
+                    jsonReader.beginObject();
+                    while (jsonReader.hasNext()) {
+                        String name = jsonReader.nextName();
+                        if ("datasets".equals(name)) {
+                            readObjectsById(jsonReader, "tf_dataset_id", hubName + "_dataset", sink);
+                        } else if ("samples".equals(name)) {
+                            readObjectsById(jsonReader, "tf_sample_id", hubName + "_sample", sink);
+                        } else {
+                            jsonReader.skipValue();
+                        }
                     }
                     log.info("Release {} fetched.", releaseId);
-                } catch (Exception e) {
-                    log.error(e.getMessage(), e);
-                } finally {
-                    countDownLatch.countDown();
                 }
-            });
+                return null;
+            }));
+        }
+        awaitAll(tasks);
+        log.info("{} releases fetched.", size);
+    }
+
+    /**
+     * Reads JSON object of objects by their IDs, handing the objects (with IDs added) to the sink one by one.
+     *
+     * @param reader         JSON reader.
+     * @param idAttribute    Attribute to put the ID to.
+     * @param objectTypeName Object type name.
+     * @param sink           Sink for read objects.
+     * @throws IOException          in case of reading problems.
+     * @throws InterruptedException if interrupted while handing objects over.
+     */
+    private void readObjectsById(JsonReader reader, String idAttribute, String objectTypeName, ObjectSink sink) throws IOException, InterruptedException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String id = reader.nextName();
+            JsonObject object = JsonParser.parseReader(reader).getAsJsonObject();
+            object.addProperty(idAttribute, id);
+            sink.accept(objectTypeName, gson.toJson(object));
         }
-        countDownLatch.await();
-        save(hubName, mapToSave.asMap());
-        log.info("{} releases stored.", size);
+        reader.endObject();
     }
 
 }
@@ -1,15 +1,20 @@
 package no.uio.ifi.trackfind.backend.data.providers.trackhub;
 
-import com.google.common.collect.HashMultimap;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import lombok.extern.slf4j.Slf4j;
 import no.uio.ifi.trackfind.backend.data.providers.AbstractDataProvider;
+import no.uio.ifi.trackfind.backend.data.providers.ObjectSink;
 import no.uio.ifi.trackfind.backend.pojo.TfHub;
-import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
@@ -69,57 +74,80 @@ public class TrackHubRegistryDataProvider extends AbstractDataProvider {
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     @Override
-    protected void fetchData(String hubName) {
+    protected void fetchData(String hubName, ObjectSink sink) throws IOException, InterruptedException {
         String hubURI = getFetchURI(hubName);
         log.info("Fetch URL {}", hubURI);
-        HashMultimap<String, String> mapToSave = HashMultimap.create();
         try (InputStream inputStream = new URL(hubURI).openStream();
-             InputStreamReader reader = new InputStreamReader(inputStream)) {
-            Map<String, Object> hub = (Map<String, Object>) gson.fromJson(reader, Map.class);
-            Map<String, Object> source = (Map<String, Object>) hub.get("_source");
-            Collection<Map<String, Object>> data = (Collection<Map<String, Object>>) source.get("data");
-            for (Map<String, Object> entry : data) {
-                mapToSave.put("data", gson.toJson(entry));
-            }
-            Collection<Map<String, Object>> trackMaps = findTrackMaps((Map<String, Object>) source.get("configuration"));
-            if (CollectionUtils.isNotEmpty(trackMaps)) {
-                for (Map<String, Object> trackMap : trackMaps) {
-                    mapToSave.put("configuration", gson.toJson(trackMap));
+             InputStreamReader reader = new InputStreamReader(inputStream);
+             JsonReader jsonReader = new JsonReader(reader)) {
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                if ("_source".equals(jsonReader.nextName())) {
+                    readSource(jsonReader, sink);
+                } else {
+                    jsonReader.skipValue();
                 }
             }
-            hub = (Map<String, Object>) source.get("hub");
-            Map<String, Object> fairData = (Map<String, Object>) hub.get("metaFairData");
-            for (String key : fairData.keySet()) {
-                Object value = fairData.get(key);
-                if (value instanceof Collection) {
-                    Collection collection = (Collection) value;
-                    for (Object object : collection) {
-                        mapToSave.put(key, gson.toJson(object));
+        }
+    }
+
+    private void readSource(JsonReader reader, ObjectSink sink) throws IOException, InterruptedException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "data":
+                    readArray(reader, "data", sink);
+                    break;
+                case "configuration":
+                    for (JsonObject trackObject : findTrackObjects(JsonParser.parseReader(reader).getAsJsonObject())) {
+                        sink.accept("configuration", gson.toJson(trackObject));
                     }
-                }
+                    break;
+                case "hub":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("metaFairData".equals(reader.nextName())) {
+                            readFairData(reader, sink);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readFairData(JsonReader reader, ObjectSink sink) throws IOException, InterruptedException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readArray(reader, key, sink);
+            } else {
+                reader.skipValue();
             }
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
         }
-        save(hubName, mapToSave.asMap());
+        reader.endObject();
     }
 
-    private Collection<Map<String, Object>> findTrackMaps(Map<String, Object> inputMap) {
-        Collection<Map<String, Object>> trackMaps = new ArrayList<>();
-        findTrackMapsRecursively(inputMap, trackMaps);
-        return trackMaps;
+    private Collection<JsonObject> findTrackObjects(JsonObject inputObject) {
+        Collection<JsonObject> trackObjects = new ArrayList<>();
+        findTrackObjectsRecursively(inputObject, trackObjects);
+        return trackObjects;
     }
 
-    @SuppressWarnings("unchecked")
-    private void findTrackMapsRecursively(Map<String, Object> mapToTest, Collection<Map<String, Object>> trackMaps) {
-        if (mapToTest.containsKey("track") && mapToTest.containsKey("bigDataUrl")) {
-            trackMaps.add(mapToTest);
+    private void findTrackObjectsRecursively(JsonObject objectToTest, Collection<JsonObject> trackObjects) {
+        if (objectToTest.has("track") && objectToTest.has("bigDataUrl")) {
+            trackObjects.add(objectToTest);
         }
-        for (Object value : mapToTest.values()) {
-            if (value instanceof Map) {
-                findTrackMapsRecursively((Map<String, Object>) value, trackMaps);
+        for (Map.Entry<String, JsonElement> entry : objectToTest.entrySet()) {
+            if (entry.getValue().isJsonObject()) {
+                findTrackObjectsRecursively(entry.getValue().getAsJsonObject(), trackObjects);
             }
         }
     }
@@ -0,0 +1,17 @@
+package no.uio.ifi.trackfind.backend.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Facet counts of the attribute: number of distinct values and number of objects having the attribute.
+ */
+@Data
+@AllArgsConstructor
+public class AttributeFacet {
+
+    private String attribute;
+    private long valuesCount;
+    private long objectsCount;
+
+}
@@ -0,0 +1,32 @@
+package no.uio.ifi.trackfind.backend.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Message sent to other TrackFind instances sharing the database, see PostgreSQL NOTIFY.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterNotification {
+
+    private String node;
+    private Type type;
+    private String repository;
+    private String hub;
+    private String event;
+
+    public enum Type {
+        /**
+         * Data of some hubs changed: derived tables, caches and search index need a refresh.
+         */
+        REFRESH,
+        /**
+         * Data of the hub changed without version change (e.g. references): its cached data must not be reused.
+         */
+        INVALIDATE
+    }
+
+}
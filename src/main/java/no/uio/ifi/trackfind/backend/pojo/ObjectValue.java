@@ -0,0 +1,19 @@
+package no.uio.ifi.trackfind.backend.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Scalar value found in an object at some attribute path: a row of tf_object_values.
+ */
+@Data
+@AllArgsConstructor
+public class ObjectValue {
+
+    private long objectId;
+    private long objectTypeId;
+    private String attribute;
+    private String value;
+    private String type;
+
+}
@@ -1,17 +1,231 @@
 package no.uio.ifi.trackfind.backend.pojo;
 
+import java.util.List;
+
 public interface Queries {
 
-    String REFRESH_MATERIALIZED_VIEWS = "" +
-            "REFRESH MATERIALIZED VIEW tf_current_objects;" +
-            "REFRESH MATERIALIZED VIEW tf_metamodel;" +
-            "REFRESH MATERIALIZED VIEW tf_array_of_objects;" +
-            "REFRESH MATERIALIZED VIEW tf_attributes;" +
-            "";
+    String LOCK_MATERIALIZED_VERSIONS = "SELECT pg_advisory_xact_lock(hashtext('tf_materialized_versions'))";
+
+    String LOCK_REFRESH = "SELECT pg_advisory_lock(hashtext('tf_refresh'))";
+
+    String UNLOCK_REFRESH = "SELECT pg_advisory_unlock(hashtext('tf_refresh'))";
+
+    String OUTDATED_MATERIALIZED_VERSIONS = "" +
+            "SELECT version_id\n" +
+            "FROM tf_materialized_versions\n" +
+            "WHERE version_id NOT IN (SELECT id FROM tf_current_versions)\n" +
+            "  AND version_id NOT IN (SELECT version_id FROM tf_published_versions)";
+
+    String PUBLISH_VERSION = "" +
+            "INSERT INTO tf_published_versions (node, version_id, heartbeat_at)\n" +
+            "VALUES (?, ?, now())\n" +
+            "ON CONFLICT (node, version_id) DO UPDATE SET heartbeat_at = now()";
+
+    String UNPUBLISH_OTHER_VERSIONS = "DELETE FROM tf_published_versions WHERE node = ? AND version_id <> ALL (?)";
+
+    String UNPUBLISH_VERSIONS = "DELETE FROM tf_published_versions WHERE node = ?";
+
+    String HEARTBEAT_PUBLISHED_VERSIONS = "UPDATE tf_published_versions SET heartbeat_at = now() WHERE node = ?";
+
+    String DELETE_EXPIRED_PUBLISHED_VERSIONS = "DELETE FROM tf_published_versions WHERE heartbeat_at < now() - make_interval(secs => ?)";
+
+    String NOT_MATERIALIZED_CURRENT_VERSIONS = "" +
+            "SELECT id\n" +
+            "FROM tf_current_versions\n" +
+            "WHERE id NOT IN (SELECT version_id FROM tf_materialized_versions)";
+
+    String OBJECT_TYPE_IDS_BY_VERSION = "SELECT id FROM tf_object_types WHERE version_id = ?";
+
+    String ADD_MATERIALIZED_VERSION = "INSERT INTO tf_materialized_versions (version_id) VALUES (?)";
+
+    String DELETE_MATERIALIZED_VERSION = "DELETE FROM tf_materialized_versions WHERE version_id = ?";
+
+    /**
+     * Tables holding data derived from current objects, in order of materialization.
+     */
+    List<String> MATERIALIZED_TABLES = List.of("tf_current_objects", "tf_object_values", "tf_metamodel", "tf_attributes", "tf_array_of_objects");
+
+    String DEMATERIALIZE_OBJECT_TYPE = "DELETE FROM %s WHERE object_type_id = ?";
+
+    String ORPHANED_OBJECT_TYPE_IDS = "" +
+            "SELECT ot.id\n" +
+            "FROM tf_object_types ot,\n" +
+            "     tf_versions v\n" +
+            "WHERE ot.version_id = v.id\n" +
+            "  AND NOT v.current\n" +
+            "  AND v.id NOT IN (SELECT version_id FROM tf_materialized_versions)";
+
+    String DELETE_ORPHANED_OBJECT_VALUES = "DELETE FROM tf_object_values WHERE object_type_id IN (" + ORPHANED_OBJECT_TYPE_IDS + ")";
+
+    String DELETE_ORPHANED_ARRAY_OF_OBJECTS = "DELETE FROM tf_array_of_objects WHERE object_type_id IN (" + ORPHANED_OBJECT_TYPE_IDS + ")";
+
+    String MATERIALIZE_CURRENT_OBJECTS = "" +
+            "INSERT INTO tf_current_objects (id, object_type_id, content)\n" +
+            "SELECT id, object_type_id, content\n" +
+            "FROM tf_objects\n" +
+            "WHERE object_type_id = ?";
+
+    String MATERIALIZE_OBJECT_VALUES = "" +
+            "INSERT INTO tf_object_values (object_id, object_type_id, attribute, value, type)\n" +
+            "WITH RECURSIVE collect_metadata AS (SELECT tf_current_objects.id AS object_id,\n" +
+            "                                           tf_current_objects.object_type_id,\n" +
+            "                                           first_level.key,\n" +
+            "                                           first_level.value,\n" +
+            "                                           jsonb_typeof(first_level.value) AS type\n" +
+            "                                    FROM tf_current_objects,\n" +
+            "                                         jsonb_each(tf_current_objects.content) first_level\n" +
+            "                                    WHERE tf_current_objects.object_type_id = ?\n" +
+            "\n" +
+            "                                    UNION ALL\n" +
+            "\n" +
+            "                                    (WITH prev_level AS (\n" +
+            "                                        SELECT *\n" +
+            "                                        FROM collect_metadata\n" +
+            "                                    )\n" +
+            "                                     SELECT prev_level.object_id,\n" +
+            "                                            prev_level.object_type_id,\n" +
+            "                                            concat(prev_level.key, '->', current_level.key),\n" +
+            "                                            current_level.value,\n" +
+            "                                            jsonb_typeof(current_level.value) AS type\n" +
+            "                                     FROM prev_level,\n" +
+            "                                          jsonb_each(prev_level.value) AS current_level\n" +
+            "                                     WHERE prev_level.type = 'object'\n" +
+            "\n" +
+            "                                     UNION ALL\n" +
+            "\n" +
+            "                                     SELECT prev_level.object_id,\n" +
+            "                                            prev_level.object_type_id,\n" +
+            "                                            concat(prev_level.key, '->', current_level.key),\n" +
+            "                                            current_level.value,\n" +
+            "                                            jsonb_typeof(current_level.value) AS type\n" +
+            "                                     FROM prev_level,\n" +
+            "                                          jsonb_array_elements(prev_level.value) AS entry,\n" +
+            "                                          jsonb_each(entry) AS current_level\n" +
+            "                                     WHERE prev_level.type = 'array'\n" +
+            "                                       AND jsonb_typeof(entry) = 'object'\n" +
+            "\n" +
+            "                                     UNION ALL\n" +
+            "\n" +
+            "                                     SELECT prev_level.object_id,\n" +
+            "                                            prev_level.object_type_id,\n" +
+            "                                            prev_level.key,\n" +
+            "                                            entry,\n" +
+            "                                            jsonb_typeof(entry) AS type\n" +
+            "                                     FROM prev_level,\n" +
+            "                                          jsonb_array_elements(prev_level.value) AS entry\n" +
+            "                                     WHERE prev_level.type = 'array'\n" +
+            "                                       AND jsonb_typeof(entry) <> 'object'))\n" +
+            "SELECT DISTINCT object_id,\n" +
+            "                object_type_id,\n" +
+            "                key                                                 AS attribute,\n" +
+            "                array_to_json(ARRAY [collect_metadata.value]) ->> 0 AS value,\n" +
+            "                type\n" +
+            "FROM collect_metadata\n" +
+            "WHERE collect_metadata.type NOT IN ('object', 'array')";
+
+    String INSERT_OBJECT_VALUE = "INSERT INTO tf_object_values (object_id, object_type_id, attribute, value, type) VALUES (?, ?, ?, ?, ?)";
+
+    String INSERT_ARRAY_OF_OBJECTS_ATTRIBUTE = "INSERT INTO tf_array_of_objects (object_type_id, attribute) VALUES (?, ?) ON CONFLICT DO NOTHING";
+
+    String CHECK_OBJECT_TYPE_EXTRACTED = "SELECT EXISTS(SELECT 1 FROM tf_object_values WHERE object_type_id = ?)";
+
+    String MATERIALIZE_METAMODEL = "" +
+            "INSERT INTO tf_metamodel (object_type_id, attribute, value, type, objects_count)\n" +
+            "SELECT object_type_id, attribute, value, type, COUNT(*)\n" +
+            "FROM tf_object_values\n" +
+            "WHERE object_type_id = ?\n" +
+            "GROUP BY object_type_id, attribute, value, type";
+
+    String MATERIALIZE_ATTRIBUTES = "" +
+            "INSERT INTO tf_attributes (object_type_id, attribute, values_count, objects_count)\n" +
+            "SELECT object_type_id, attribute, COUNT(DISTINCT value), COUNT(DISTINCT object_id)\n" +
+            "FROM tf_object_values\n" +
+            "WHERE object_type_id = ?\n" +
+            "GROUP BY object_type_id, attribute";
+
+    String MATERIALIZE_ARRAY_OF_OBJECTS = "" +
+            "INSERT INTO tf_array_of_objects (object_type_id, attribute)\n" +
+            "WITH RECURSIVE collect_metadata AS (SELECT tf_current_objects.object_type_id,\n" +
+            "                                           first_level.key,\n" +
+            "                                           NULL                            AS prev_key,\n" +
+            "                                           first_level.value,\n" +
+            "                                           jsonb_typeof(first_level.value) AS type\n" +
+            "                                    FROM tf_current_objects,\n" +
+            "                                         jsonb_each(tf_current_objects.content) first_level\n" +
+            "                                    WHERE tf_current_objects.object_type_id = ?\n" +
+            "\n" +
+            "                                    UNION ALL\n" +
+            "\n" +
+            "                                    (WITH prev_level AS (\n" +
+            "                                        SELECT *\n" +
+            "                                        FROM collect_metadata\n" +
+            "                                    )\n" +
+            "                                     SELECT prev_level.object_type_id,\n" +
+            "                                            concat(prev_level.key, '->', current_level.key),\n" +
+            "                                            NULL                              AS prev_key,\n" +
+            "                                            current_level.value,\n" +
+            "                                            jsonb_typeof(current_level.value) AS type\n" +
+            "                                     FROM prev_level,\n" +
+            "                                          jsonb_each(prev_level.value) AS current_level\n" +
+            "                                     WHERE prev_level.type = 'object'\n" +
+            "\n" +
+            "                                     UNION ALL\n" +
+            "\n" +
+            "                                     SELECT prev_level.object_type_id,\n" +
+            "                                            concat(prev_level.key, '->', current_level.key),\n" +
+            "                                            prev_level.key                    AS prev_key,\n" +
+            "                                            current_level.value,\n" +
+            "                                            jsonb_typeof(current_level.value) AS type\n" +
+            "                                     FROM prev_level,\n" +
+            "                                          jsonb_array_elements(prev_level.value) AS entry,\n" +
+            "                                          jsonb_each(entry) AS current_level\n" +
+            "                                     WHERE prev_level.type = 'array'\n" +
+            "                                       AND jsonb_typeof(entry) = 'object'\n" +
+            "\n" +
+            "                                     UNION ALL\n" +
+            "\n" +
+            "                                     SELECT prev_level.object_type_id,\n" +
+            "                                            prev_level.key,\n" +
+            "                                            NULL                AS prev_key,\n" +
+            "                                            entry,\n" +
+            "                                            jsonb_typeof(entry) AS type\n" +
+            "                                     FROM prev_level,\n" +
+            "                                          jsonb_array_elements(prev_level.value) AS entry\n" +
+            "                                     WHERE prev_level.type = 'array'\n" +
+            "                                       AND jsonb_typeof(entry) <> 'object'))\n" +
+            "SELECT DISTINCT object_type_id, prev_key AS attribute\n" +
+            "FROM collect_metadata\n" +
+            "WHERE prev_key IS NOT NULL\n" +
+            "ON CONFLICT DO NOTHING";
+
+
+    String NOTIFY = "SELECT pg_notify(?, ?)";
+
+    String CURRENT_HUB_VERSIONS = "" +
+            "SELECT h.repository, h.name AS hub, v.id AS version_id, v.references_revision, COALESCE(v.references_updated_at, v.time) AS last_modified\n" +
+            "FROM tf_hubs h,\n" +
+            "     tf_current_versions v\n" +
+            "WHERE h.id = v.hub_id";
+
+    String HUB_VERSION_STATE = "SELECT references_revision, COALESCE(references_updated_at, time) AS last_modified FROM tf_versions WHERE id = ?";
+
+    String UPDATE_REFERENCES_REVISION = "UPDATE tf_versions SET references_revision = references_revision + 1, references_updated_at = now() WHERE id = ?";
+
+    String CURRENT_OBJECT_TYPES = "" +
+            "SELECT h.repository, h.name AS hub, ot.id, ot.name\n" +
+            "FROM tf_hubs h,\n" +
+            "     tf_current_versions v,\n" +
+            "     tf_object_types ot\n" +
+            "WHERE h.id = v.hub_id\n" +
+            "  AND v.id = ot.version_id";
+
+    String CURRENT_OBJECTS_BY_OBJECT_TYPE = "SELECT id, content FROM tf_current_objects WHERE object_type_id = ?";
 
     String CHECK_SEARCH_USER_EXISTS = "SELECT count(*) FROM pg_catalog.pg_roles WHERE rolname = 'search'";
 
-    String CREATE_SEARCH_USER = "CREATE USER search PASSWORD 'search'; GRANT SELECT ON tf_current_objects TO search;";
+    String CREATE_SEARCH_USER = "CREATE USER search PASSWORD 'search'";
+
+    String GRANT_SEARCH_USER = "GRANT SELECT ON tf_current_objects TO search";
 
     String ADD_AT_LEST_ONE_ADMIN_CONSTRAINT = "" +
             "ALTER TABLE tf_users\n" +
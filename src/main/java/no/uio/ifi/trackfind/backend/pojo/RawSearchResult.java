@@ -0,0 +1,25 @@
+package no.uio.ifi.trackfind.backend.pojo;
+
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Search result keeping JSONB content as it was returned by the database: serialized without being parsed.
+ */
+public class RawSearchResult {
+
+    private Map<String, RawValue> content = new HashMap<>();
+
+    @JsonAnyGetter
+    public Map<String, RawValue> getContent() {
+        return content;
+    }
+
+    public void setContent(Map<String, RawValue> content) {
+        this.content = content;
+    }
+
+}
@@ -0,0 +1,43 @@
+package no.uio.ifi.trackfind.backend.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Background update of derived tables, caches and search index, triggered by one or more data reload events.
+ */
+@Data
+@AllArgsConstructor
+public class RefreshJob {
+
+    private long id;
+    private List<String> events;
+    private State state;
+    private Instant queuedAt;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private Long durationMillis;
+    private String error;
+
+    public RefreshJob(long id) {
+        this(id, new ArrayList<>(), State.QUEUED, Instant.now(), null, null, null, null);
+    }
+
+    /**
+     * Copies the job, so that it can be read while the original one is being updated.
+     *
+     * @return Copy of the job.
+     */
+    public RefreshJob copy() {
+        return new RefreshJob(id, new ArrayList<>(events), state, queuedAt, startedAt, finishedAt, durationMillis, error);
+    }
+
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+}
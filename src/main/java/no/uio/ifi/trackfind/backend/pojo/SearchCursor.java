@@ -0,0 +1,67 @@
+package no.uio.ifi.trackfind.backend.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Keyset pagination position: IDs of the last returned entry per category, in the order of categories.
+ * Passed to clients as an opaque token.
+ */
+@Data
+@AllArgsConstructor
+public class SearchCursor {
+
+    private static final String ENTRIES_SEPARATOR = ";";
+    private static final String KEY_VALUE_SEPARATOR = ":";
+
+    private List<String> categories;
+    private List<Long> ids;
+
+    /**
+     * Encodes cursor into URL-safe token.
+     *
+     * @return Opaque token.
+     */
+    public String encode() {
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < categories.size(); i++) {
+            if (i != 0) {
+                token.append(ENTRIES_SEPARATOR);
+            }
+            token.append(categories.get(i)).append(KEY_VALUE_SEPARATOR).append(ids.get(i));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes cursor from token.
+     *
+     * @param token Opaque token produced by {@link #encode()}.
+     * @return Decoded cursor.
+     * @throws IllegalArgumentException In case token is malformed.
+     */
+    public static SearchCursor decode(String token) {
+        String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        List<String> categories = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        for (String entry : StringUtils.split(decoded, ENTRIES_SEPARATOR)) {
+            String[] keyValue = StringUtils.split(entry, KEY_VALUE_SEPARATOR);
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Malformed cursor: " + token);
+            }
+            categories.add(keyValue[0]);
+            ids.add(Long.parseLong(keyValue[1]));
+        }
+        if (categories.isEmpty()) {
+            throw new IllegalArgumentException("Malformed cursor: " + token);
+        }
+        return new SearchCursor(categories, ids);
+    }
+
+}
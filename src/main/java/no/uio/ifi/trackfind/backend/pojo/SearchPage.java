@@ -0,0 +1,24 @@
+package no.uio.ifi.trackfind.backend.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.Collection;
+
+/**
+ * Page of search results. Total, when requested, is the number of matching entries starting from the page's cursor.
+ *
+ * @param <T> Search result type.
+ */
+@Data
+@AllArgsConstructor
+public class SearchPage<T> {
+
+    private Roaring64NavigableMap ids;
+    private Collection<T> results;
+    private String nextCursor;
+    private Long total;
+    private boolean estimated;
+
+}
@@ -0,0 +1,34 @@
+package no.uio.ifi.trackfind.backend.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import no.uio.ifi.trackfind.backend.query.SearchPredicate;
+
+import java.util.List;
+
+/**
+ * Compiled search query: SQL skeleton around the user predicate and IDs of object types to bind into it.
+ * Parameters are bound in the following order: object type IDs, cursor IDs (if any), predicate parameters, limit (if any).
+ */
+@Data
+@AllArgsConstructor
+public class SearchQueryPlan {
+
+    private List<String> categories;
+    private List<Long> objectTypeIds;
+    private String prefix;
+    private String suffix;
+    private boolean withCursor;
+    private boolean withLimit;
+
+    /**
+     * Completes the skeleton with the user predicate.
+     *
+     * @param predicate Search predicate.
+     * @return SQL ready to be prepared.
+     */
+    public String toSQL(SearchPredicate predicate) {
+        return prefix + "(" + predicate.getSql() + ")" + suffix;
+    }
+
+}
@@ -0,0 +1,18 @@
+package no.uio.ifi.trackfind.backend.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Conjunction or disjunction of sub-queries.
+ */
+@Data
+@AllArgsConstructor
+public class BooleanNode implements QueryNode {
+
+    private boolean conjunction;
+    private List<QueryNode> children;
+
+}
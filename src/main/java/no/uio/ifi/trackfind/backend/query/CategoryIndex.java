@@ -0,0 +1,231 @@
+package no.uio.ifi.trackfind.backend.query;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import lombok.Getter;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over the current objects of a single category (object type):
+ * maps (attribute path, value) to compressed posting list of IDs of objects having that value at that path.
+ * Evaluation follows the semantics of {@link QueryTranslator}, i.e. JSONB containment, with negations guarded by
+ * existence of the attribute.
+ */
+public class CategoryIndex {
+
+    private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9]\\d*)(\\.\\d+)?([eE][+-]?\\d+)?");
+    private static final char SEPARATOR = '\u001F';
+
+    @Getter
+    private final long objectTypeId;
+
+    private final Roaring64NavigableMap all = newBitmap();
+    private final Map<String, Roaring64NavigableMap> postings = new HashMap<>();
+
+    public CategoryIndex(long objectTypeId) {
+        this.objectTypeId = objectTypeId;
+    }
+
+    /**
+     * Adds object to the index.
+     * Scalars are indexed by their path, elements of arrays of objects are indexed under the "*" segment.
+     * Keys of objects and presence of every path are indexed too. Nested arrays and nulls are not indexed.
+     *
+     * @param id      Object ID.
+     * @param content Object content.
+     */
+    public void add(long id, JsonObject content) {
+        all.addLong(id);
+        add(id, new ArrayList<>(), content);
+    }
+
+    /**
+     * Compacts posting lists once all objects are added.
+     */
+    public void optimize() {
+        all.runOptimize();
+        postings.values().forEach(Roaring64NavigableMap::runOptimize);
+    }
+
+    /**
+     * Number of indexed objects.
+     *
+     * @return Number of objects.
+     */
+    public long size() {
+        return all.getLongCardinality();
+    }
+
+    /**
+     * Evaluates the query against the index.
+     *
+     * @param node Query referring to this category only.
+     * @return IDs of matching objects.
+     * @throws QueryParseException In case query can't be evaluated by the index.
+     */
+    public Roaring64NavigableMap evaluate(QueryNode node) {
+        return evaluateBoth(node)[0];
+    }
+
+    /**
+     * Evaluates the query to a pair of results: objects for which it's true and objects for which it's false.
+     * Objects lacking an attribute are in neither result of a predicate on that attribute, as with SQL NULL.
+     */
+    private Roaring64NavigableMap[] evaluateBoth(QueryNode node) {
+        if (node instanceof ConstantNode) {
+            Roaring64NavigableMap whenTrue = newBitmap();
+            whenTrue.or(all);
+            Roaring64NavigableMap whenFalse = newBitmap();
+            return ((ConstantNode) node).isValue() ? new Roaring64NavigableMap[]{whenTrue, whenFalse} : new Roaring64NavigableMap[]{whenFalse, whenTrue};
+        }
+        if (node instanceof NotNode) {
+            Roaring64NavigableMap[] child = evaluateBoth(((NotNode) node).getChild());
+            return new Roaring64NavigableMap[]{child[1], child[0]};
+        }
+        if (node instanceof BooleanNode) {
+            BooleanNode booleanNode = (BooleanNode) node;
+            Roaring64NavigableMap[] result = null;
+            for (QueryNode child : booleanNode.getChildren()) {
+                Roaring64NavigableMap[] childResult = evaluateBoth(child);
+                if (result == null) {
+                    result = childResult;
+                } else if (booleanNode.isConjunction()) {
+                    result[0].and(childResult[0]);
+                    result[1].or(childResult[1]);
+                } else {
+                    result[0].or(childResult[0]);
+                    result[1].and(childResult[1]);
+                }
+            }
+            return result == null ? new Roaring64NavigableMap[]{newBitmap(), newBitmap()} : result;
+        }
+        PredicateNode predicate = (PredicateNode) node;
+        Roaring64NavigableMap whenTrue = evaluatePredicate(predicate);
+        Roaring64NavigableMap whenFalse = newBitmap();
+        or(whenFalse, presenceKey(String.join(String.valueOf(SEPARATOR), predicate.getPath()), predicate.isText()));
+        whenFalse.andNot(whenTrue);
+        return new Roaring64NavigableMap[]{whenTrue, whenFalse};
+    }
+
+    private Roaring64NavigableMap evaluatePredicate(PredicateNode predicate) {
+        if (predicate.getPath().isEmpty()) {
+            throw new QueryParseException("Conditions on the whole document are not supported: " + predicate);
+        }
+        String path = String.join(String.valueOf(SEPARATOR), predicate.getPath());
+        Roaring64NavigableMap result = newBitmap();
+        if (predicate.getOperator() == PredicateNode.Operator.ANY_OF) {
+            // "?" matches a string, an array containing that string and an object having that key
+            for (String value : predicate.getValues()) {
+                or(result, key(path, false, new JsonPrimitive(value)));
+                or(result, key(path, true, new JsonPrimitive(value)));
+                or(result, objectKey(path, value));
+            }
+            return result;
+        }
+        String value = predicate.getValues().iterator().next();
+        JsonPrimitive scalar = parseScalar(value);
+        if (predicate.isText()) {
+            // "->>" turns any scalar into text, so the value may be stored as a string, number or boolean
+            or(result, key(path, false, new JsonPrimitive(value)));
+        } else if (scalar == null) {
+            throw new QueryParseException("Not a JSON scalar: " + value);
+        }
+        if (scalar != null) {
+            or(result, key(path, false, scalar));
+        }
+        return result;
+    }
+
+    private void or(Roaring64NavigableMap result, String key) {
+        Roaring64NavigableMap posting = postings.get(key);
+        if (posting != null) {
+            result.or(posting);
+        }
+    }
+
+    private void add(long id, List<String> path, JsonElement element) {
+        String joinedPath = String.join(String.valueOf(SEPARATOR), path);
+        if (!path.isEmpty()) {
+            post(id, presenceKey(joinedPath, false));
+            if (!element.isJsonNull()) {
+                post(id, presenceKey(joinedPath, true)); // "->>" turns JSON null into NULL
+            }
+        }
+        if (element.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                if (!path.isEmpty()) {
+                    post(id, objectKey(joinedPath, entry.getKey()));
+                }
+                path.add(entry.getKey());
+                add(id, path, entry.getValue());
+                path.remove(path.size() - 1);
+            }
+        } else if (element.isJsonArray()) {
+            if (path.isEmpty()) {
+                return;
+            }
+            for (JsonElement entry : (JsonArray) element) {
+                if (entry.isJsonObject()) {
+                    path.add(PredicateNode.ARRAY_MARKER);
+                    add(id, path, entry);
+                    path.remove(path.size() - 1);
+                } else if (entry.isJsonPrimitive()) {
+                    post(id, key(joinedPath, true, entry.getAsJsonPrimitive()));
+                }
+            }
+        } else if (element.isJsonPrimitive() && !path.isEmpty()) {
+            post(id, key(joinedPath, false, element.getAsJsonPrimitive()));
+        }
+    }
+
+    private void post(long id, String key) {
+        postings.computeIfAbsent(key, k -> newBitmap()).addLong(id);
+    }
+
+    private static Roaring64NavigableMap newBitmap() {
+        return new Roaring64NavigableMap(false, false); // no lazily cached cardinalities: the index is read concurrently
+    }
+
+    private String presenceKey(String path, boolean text) {
+        return path + SEPARATOR + (text ? "t" : "p");
+    }
+
+    private String objectKey(String path, String name) {
+        return path + SEPARATOR + "k:" + name;
+    }
+
+    private String key(String path, boolean arrayElement, JsonPrimitive value) {
+        StringBuilder key = new StringBuilder(path).append(SEPARATOR);
+        if (arrayElement) {
+            key.append('[');
+        }
+        if (value.isNumber()) {
+            key.append("n:").append(new BigDecimal(value.getAsString()).stripTrailingZeros().toPlainString());
+        } else if (value.isBoolean()) {
+            key.append("b:").append(value.getAsBoolean());
+        } else {
+            key.append("s:").append(value.getAsString());
+        }
+        return key.toString();
+    }
+
+    private static JsonPrimitive parseScalar(String value) {
+        if (NUMBER.matcher(value).matches()) {
+            return new JsonPrimitive(new BigDecimal(value));
+        }
+        if ("true".equals(value) || "false".equals(value)) {
+            return new JsonPrimitive(Boolean.parseBoolean(value));
+        }
+        return null;
+    }
+
+}
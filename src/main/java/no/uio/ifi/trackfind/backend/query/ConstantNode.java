@@ -0,0 +1,15 @@
+package no.uio.ifi.trackfind.backend.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Boolean literal, e.g. "true" to match everything.
+ */
+@Data
+@AllArgsConstructor
+public class ConstantNode implements QueryNode {
+
+    private boolean value;
+
+}
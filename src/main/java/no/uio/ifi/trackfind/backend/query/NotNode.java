@@ -0,0 +1,15 @@
+package no.uio.ifi.trackfind.backend.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Negation of a sub-query.
+ */
+@Data
+@AllArgsConstructor
+public class NotNode implements QueryNode {
+
+    private QueryNode child;
+
+}
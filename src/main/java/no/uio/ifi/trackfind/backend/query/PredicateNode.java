@@ -0,0 +1,40 @@
+package no.uio.ifi.trackfind.backend.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Condition on a single attribute of a category, e.g. {@code samples.content->'a'->'b' ?| array['x', 'y']}.
+ */
+@Data
+@AllArgsConstructor
+public class PredicateNode implements QueryNode {
+
+    /**
+     * Path segment standing for "any element of array of objects".
+     */
+    public static final String ARRAY_MARKER = "*";
+
+    private String category;
+    private List<String> path;
+    private boolean text;
+    private Operator operator;
+    private List<String> values;
+
+    public enum Operator {
+
+        /**
+         * String value (or element of array of strings) is one of the values: {@code ?} or {@code ?|}.
+         */
+        ANY_OF,
+
+        /**
+         * Value is equal to the (single) value: {@code =}.
+         */
+        EQUALS
+
+    }
+
+}
@@ -0,0 +1,7 @@
+package no.uio.ifi.trackfind.backend.query;
+
+/**
+ * Node of parsed search query.
+ */
+public interface QueryNode {
+}
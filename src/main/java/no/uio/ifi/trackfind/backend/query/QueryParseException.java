@@ -0,0 +1,12 @@
+package no.uio.ifi.trackfind.backend.query;
+
+/**
+ * Thrown when search query doesn't fit structured query grammar.
+ */
+public class QueryParseException extends IllegalArgumentException {
+
+    public QueryParseException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,220 @@
+package no.uio.ifi.trackfind.backend.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser of search queries in the form produced by the UI:
+ * predicates like {@code samples.content->'a'->*->'b' ? 'x'}, {@code ?| array['x', 'y']} or {@code = '1'},
+ * combined with AND, OR, NOT and parentheses.
+ */
+public class QueryParser {
+
+    private static final String CONTENT = "content";
+
+    private final String query;
+    private final List<String> tokens = new ArrayList<>();
+    private int position;
+
+    public QueryParser(String query) {
+        this.query = query;
+    }
+
+    /**
+     * Parses the query.
+     *
+     * @return Root node of parsed query.
+     * @throws QueryParseException In case query doesn't fit the grammar.
+     */
+    public QueryNode parse() {
+        tokenize();
+        QueryNode node = parseOr();
+        if (position != tokens.size()) {
+            throw new QueryParseException("Unexpected token '" + tokens.get(position) + "' in query: " + query);
+        }
+        return node;
+    }
+
+    private QueryNode parseOr() {
+        List<QueryNode> children = new ArrayList<>();
+        children.add(parseAnd());
+        while (acceptKeyword("OR")) {
+            children.add(parseAnd());
+        }
+        return children.size() == 1 ? children.get(0) : new BooleanNode(false, children);
+    }
+
+    private QueryNode parseAnd() {
+        List<QueryNode> children = new ArrayList<>();
+        children.add(parseNot());
+        while (acceptKeyword("AND")) {
+            children.add(parseNot());
+        }
+        return children.size() == 1 ? children.get(0) : new BooleanNode(true, children);
+    }
+
+    private QueryNode parseNot() {
+        if (acceptKeyword("NOT")) {
+            return new NotNode(parseNot());
+        }
+        return parsePrimary();
+    }
+
+    private QueryNode parsePrimary() {
+        if (accept("(")) {
+            QueryNode node = parseOr();
+            expect(")");
+            return node;
+        }
+        if (acceptKeyword("TRUE")) {
+            return new ConstantNode(true);
+        }
+        if (acceptKeyword("FALSE")) {
+            return new ConstantNode(false);
+        }
+        return parsePredicate();
+    }
+
+    private QueryNode parsePredicate() {
+        String column = next();
+        int dot = column.indexOf('.');
+        if (dot <= 0 || !CONTENT.equals(column.substring(dot + 1)) || !isIdentifier(column.substring(0, dot))) {
+            throw new QueryParseException("Expected <category>.content but got '" + column + "' in query: " + query);
+        }
+        String category = column.substring(0, dot);
+        List<String> path = new ArrayList<>();
+        boolean text = false;
+        while (true) {
+            if (accept("->")) {
+                if (accept("*")) {
+                    path.add(PredicateNode.ARRAY_MARKER);
+                } else {
+                    path.add(parseString());
+                }
+            } else if (accept("->>")) {
+                path.add(parseString());
+                text = true;
+                break;
+            } else {
+                break;
+            }
+        }
+        if (accept("=")) {
+            return new PredicateNode(category, path, text, PredicateNode.Operator.EQUALS, List.of(parseString()));
+        }
+        if (text) {
+            throw new QueryParseException("Only equality is supported for text values in query: " + query);
+        }
+        if (accept("?")) {
+            return new PredicateNode(category, path, false, PredicateNode.Operator.ANY_OF, List.of(parseString()));
+        }
+        if (accept("?|")) {
+            if (!acceptKeyword("ARRAY")) {
+                throw new QueryParseException("Expected array[...] in query: " + query);
+            }
+            expect("[");
+            List<String> values = new ArrayList<>();
+            values.add(parseString());
+            while (accept(",")) {
+                values.add(parseString());
+            }
+            expect("]");
+            return new PredicateNode(category, path, false, PredicateNode.Operator.ANY_OF, values);
+        }
+        throw new QueryParseException("Unsupported operator in query: " + query);
+    }
+
+    private String parseString() {
+        String token = next();
+        if (token.length() < 2 || !token.startsWith("'") || !token.endsWith("'")) {
+            throw new QueryParseException("Expected string literal but got '" + token + "' in query: " + query);
+        }
+        return token.substring(1, token.length() - 1).replace("''", "'");
+    }
+
+    private boolean accept(String token) {
+        if (position < tokens.size() && tokens.get(position).equals(token)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(keyword)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw new QueryParseException("Expected '" + token + "' in query: " + query);
+        }
+    }
+
+    private String next() {
+        if (position >= tokens.size()) {
+            throw new QueryParseException("Unexpected end of query: " + query);
+        }
+        return tokens.get(position++);
+    }
+
+    private boolean isIdentifier(String string) {
+        if (string.isEmpty() || !(Character.isLetter(string.charAt(0)) || string.charAt(0) == '_')) {
+            return false;
+        }
+        return string.chars().allMatch(c -> Character.isLetterOrDigit(c) || c == '_');
+    }
+
+    private void tokenize() {
+        int i = 0;
+        int length = query.length();
+        while (i < length) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                int end = i + 1;
+                while (true) {
+                    if (end >= length) {
+                        throw new QueryParseException("Unterminated string literal in query: " + query);
+                    }
+                    if (query.charAt(end) == '\'') {
+                        if (end + 1 < length && query.charAt(end + 1) == '\'') {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    end++;
+                }
+                tokens.add(query.substring(i, end + 1));
+                i = end + 1;
+            } else if (query.startsWith("->>", i)) {
+                tokens.add("->>");
+                i += 3;
+            } else if (query.startsWith("->", i)) {
+                tokens.add("->");
+                i += 2;
+            } else if (query.startsWith("?|", i)) {
+                tokens.add("?|");
+                i += 2;
+            } else if ("?=()[],*".indexOf(c) != -1) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (Character.isLetterOrDigit(c) || c == '_') {
+                int end = i;
+                while (end < length && (Character.isLetterOrDigit(query.charAt(end)) || query.charAt(end) == '_' || query.charAt(end) == '.')) {
+                    end++;
+                }
+                tokens.add(query.substring(i, end));
+                i = end;
+            } else {
+                throw new QueryParseException("Unsupported character '" + c + "' in query: " + query);
+            }
+        }
+    }
+
+}
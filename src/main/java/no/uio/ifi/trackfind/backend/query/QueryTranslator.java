@@ -0,0 +1,194 @@
+package no.uio.ifi.trackfind.backend.query;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Translates parsed search queries to SQL.
+ * Predicates become JSONB containment checks ({@code @>}), which can be served by the GIN index on the content.
+ * Negations are guarded by existence of the attribute, so that objects without it match neither a predicate nor its negation.
+ */
+public class QueryTranslator {
+
+    private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9]\\d*)(\\.\\d+)?([eE][+-]?\\d+)?");
+
+    private QueryTranslator() {
+    }
+
+    /**
+     * Translates query to SQL condition with bound values.
+     *
+     * @param node Root node of parsed query.
+     * @return SQL condition.
+     * @throws QueryParseException In case query can't be expressed with containment checks.
+     */
+    public static SearchPredicate translate(QueryNode node) {
+        return translateBoth(node)[0];
+    }
+
+    /**
+     * Translates query to a pair of conditions: when it's true and when it's false.
+     * Containment checks are never NULL, while conditions on missing attributes used to be NULL (so that neither
+     * the condition nor its negation matched). Tracking falsity separately keeps that three-valued behaviour.
+     */
+    private static SearchPredicate[] translateBoth(QueryNode node) {
+        if (node instanceof ConstantNode) {
+            SearchPredicate whenTrue = new SearchPredicate("TRUE", new ArrayList<>());
+            SearchPredicate whenFalse = new SearchPredicate("FALSE", new ArrayList<>());
+            return ((ConstantNode) node).isValue() ? new SearchPredicate[]{whenTrue, whenFalse} : new SearchPredicate[]{whenFalse, whenTrue};
+        }
+        if (node instanceof NotNode) {
+            SearchPredicate[] child = translateBoth(((NotNode) node).getChild());
+            return new SearchPredicate[]{child[1], child[0]};
+        }
+        if (node instanceof BooleanNode) {
+            BooleanNode booleanNode = (BooleanNode) node;
+            List<SearchPredicate> whenTrue = new ArrayList<>();
+            List<SearchPredicate> whenFalse = new ArrayList<>();
+            for (QueryNode child : booleanNode.getChildren()) {
+                SearchPredicate[] childPredicates = translateBoth(child);
+                whenTrue.add(childPredicates[0]);
+                whenFalse.add(childPredicates[1]);
+            }
+            return booleanNode.isConjunction()
+                    ? new SearchPredicate[]{join(" AND ", whenTrue), join(" OR ", whenFalse)}
+                    : new SearchPredicate[]{join(" OR ", whenTrue), join(" AND ", whenFalse)};
+        }
+        PredicateNode predicate = (PredicateNode) node;
+        SearchPredicate whenTrue = translatePredicate(predicate);
+        List<Object> parameters = new ArrayList<>();
+        String exists = valueAt(predicate, predicate.isText(), parameters, value -> value + " IS NOT NULL");
+        parameters.addAll(whenTrue.getParameters());
+        return new SearchPredicate[]{whenTrue, new SearchPredicate("(" + exists + ") AND NOT (" + whenTrue.getSql() + ")", parameters)};
+    }
+
+    private static SearchPredicate join(String operator, List<SearchPredicate> predicates) {
+        List<Object> parameters = new ArrayList<>();
+        predicates.forEach(p -> parameters.addAll(p.getParameters()));
+        return new SearchPredicate(predicates.stream().map(p -> "(" + p.getSql() + ")").collect(Collectors.joining(operator)), parameters);
+    }
+
+    private static SearchPredicate translatePredicate(PredicateNode predicate) {
+        if (predicate.getPath().isEmpty()) {
+            throw new QueryParseException("Conditions on the whole document are not supported: " + predicate);
+        }
+        List<JsonElement> leaves = new ArrayList<>();
+        if (predicate.getOperator() == PredicateNode.Operator.ANY_OF) {
+            // "?" matches both a string and an array containing that string
+            for (String value : predicate.getValues()) {
+                JsonArray array = new JsonArray();
+                array.add(value);
+                leaves.add(new JsonPrimitive(value));
+                leaves.add(array);
+            }
+        } else {
+            String value = predicate.getValues().iterator().next();
+            if (predicate.isText()) {
+                // "->>" turns any scalar into text, so the value may be stored as a string, number or boolean
+                leaves.add(new JsonPrimitive(value));
+                JsonPrimitive scalar = parseScalar(value);
+                if (scalar != null) {
+                    leaves.add(scalar);
+                }
+            } else {
+                JsonPrimitive scalar = parseScalar(value);
+                if (scalar == null) {
+                    throw new QueryParseException("Not a JSON scalar: " + value);
+                }
+                leaves.add(scalar);
+            }
+        }
+        List<String> conditions = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+        for (JsonElement leaf : leaves) {
+            parameters.add(wrap(predicate.getPath(), leaf).toString());
+            conditions.add(predicate.getCategory() + ".content @> ?::jsonb");
+        }
+        if (predicate.getOperator() == PredicateNode.Operator.ANY_OF) {
+            // "?" also matches a key of an object, which containment can't express:
+            // containment of an empty object narrows it down to objects using the index, the key is checked on these only
+            for (String value : predicate.getValues()) {
+                parameters.add(wrap(predicate.getPath(), new JsonObject()).toString());
+                String hasKey = valueAt(predicate, false, parameters, object -> {
+                    parameters.add(value);
+                    return object + " ?? ?::text";
+                });
+                conditions.add(predicate.getCategory() + ".content @> ?::jsonb AND " + hasKey);
+            }
+        }
+        String sql = conditions.size() == 1 ? conditions.get(0) : conditions.stream().map(c -> "(" + c + ")").collect(Collectors.joining(" OR "));
+        return new SearchPredicate(sql, parameters);
+    }
+
+    /**
+     * Builds condition on the value at the path of the predicate: "*" segments become checks over array elements.
+     *
+     * @param predicate  Predicate to take category and path from.
+     * @param text       Whether the last step should extract text.
+     * @param parameters Parameters to add the path segments to.
+     * @param condition  Condition on the value expression, adding its own parameters.
+     * @return SQL condition.
+     */
+    private static String valueAt(PredicateNode predicate, boolean text, List<Object> parameters, UnaryOperator<String> condition) {
+        return valueAt(predicate.getCategory() + ".content", predicate.getPath(), 0, text, parameters, condition);
+    }
+
+    private static String valueAt(String expression, List<String> path, int from, boolean text, List<Object> parameters, UnaryOperator<String> condition) {
+        StringBuilder value = new StringBuilder(expression);
+        List<Object> segments = new ArrayList<>();
+        for (int i = from; i < path.size(); i++) {
+            String segment = path.get(i);
+            if (PredicateNode.ARRAY_MARKER.equals(segment)) {
+                String element = "e" + i;
+                // the value is referenced twice
+                parameters.addAll(segments);
+                parameters.addAll(segments);
+                return "EXISTS (SELECT 1 FROM jsonb_array_elements(CASE jsonb_typeof(" + value + ") WHEN 'array' THEN " + value + " END) AS " + element + "(value)" +
+                        " WHERE " + valueAt(element + ".value", path, i + 1, text, parameters, condition) + ")";
+            }
+            value.append(text && i == path.size() - 1 ? " ->> ?::text" : " -> ?::text");
+            segments.add(segment);
+        }
+        parameters.addAll(segments);
+        return condition.apply("(" + value + ")");
+    }
+
+    private static JsonElement wrap(List<String> path, JsonElement leaf) {
+        JsonElement result = leaf;
+        ListIterator<String> iterator = path.listIterator(path.size());
+        while (iterator.hasPrevious()) {
+            String segment = iterator.previous();
+            if (PredicateNode.ARRAY_MARKER.equals(segment)) {
+                JsonArray array = new JsonArray();
+                array.add(result);
+                result = array;
+            } else {
+                JsonObject object = new JsonObject();
+                object.add(segment, result);
+                result = object;
+            }
+        }
+        return result;
+    }
+
+    private static JsonPrimitive parseScalar(String value) {
+        if (NUMBER.matcher(value).matches()) {
+            return new JsonPrimitive(new BigDecimal(value));
+        }
+        if ("true".equals(value) || "false".equals(value)) {
+            return new JsonPrimitive(Boolean.parseBoolean(value));
+        }
+        return null;
+    }
+
+}
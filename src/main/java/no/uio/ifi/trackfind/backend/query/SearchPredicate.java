@@ -0,0 +1,29 @@
+package no.uio.ifi.trackfind.backend.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SQL condition to put after the WHERE clause of the search query, together with parameters to bind into it.
+ */
+@Data
+@AllArgsConstructor
+public class SearchPredicate {
+
+    private String sql;
+    private List<Object> parameters;
+
+    /**
+     * Wraps raw SQL condition: literal question marks (JSONB operators) are escaped, so they are not treated as parameters.
+     *
+     * @param sql Raw SQL condition.
+     * @return Predicate without parameters.
+     */
+    public static SearchPredicate raw(String sql) {
+        return new SearchPredicate(sql.replace("?", "??"), Collections.emptyList());
+    }
+
+}
@@ -2,33 +2,129 @@ package no.uio.ifi.trackfind.backend.services.impl;
 
 import lombok.extern.slf4j.Slf4j;
 import no.uio.ifi.trackfind.backend.events.DataReloadEvent;
-import no.uio.ifi.trackfind.backend.pojo.Queries;
+import no.uio.ifi.trackfind.backend.pojo.RefreshJob;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
 /**
- * Service for resetting caches.
+ * Service for resetting caches. Refreshes run one at a time in the background, see {@link RefreshJob}.
  */
-// TODO: cover with tests
 @Slf4j
 @Service
 @Transactional
 public class CacheService {
 
+    private static final int REFRESH_JOBS_HISTORY_SIZE = 20;
+
     protected TrackFindService trackFindService;
-    protected JdbcTemplate jdbcTemplate;
+    protected MaterializationService materializationService;
+    protected SearchIndexService searchIndexService;
+    protected VersionRegistry versionRegistry;
+    protected CacheWarmUpService cacheWarmUpService;
+    protected ExecutorService executorService;
+
+    private final Deque<RefreshJob> refreshJobs = new ArrayDeque<>();
+    private final AtomicLong refreshJobIds = new AtomicLong();
+    private RefreshJob queuedRefreshJob;
+
+    /**
+     * Schedules refresh once the application is started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        scheduleRefresh("STARTUP");
+    }
 
     /**
-     * Refreshes materialized views in the database.
+     * Schedules refresh upon data reload.
      */
     @TransactionalEventListener(classes = DataReloadEvent.class)
     public void resetCaches(DataReloadEvent dataReloadEvent) {
         log.info("Event {} received.", dataReloadEvent.getSource());
-        jdbcTemplate.execute(Queries.REFRESH_MATERIALIZED_VIEWS);
-        log.info("Materialized views refreshed.");
+        scheduleRefresh(dataReloadEvent.getSource() + ": " + dataReloadEvent.getDataProviderName());
+    }
+
+    /**
+     * Schedules background refresh: adding derived rows of changed versions, warming up caches of new versions,
+     * switching hubs to them, deleting derived rows of previous versions and search index rebuilding.
+     * Events arriving while a refresh is queued are coalesced into it. Until the refresh is done, readers keep seeing
+     * the previous state. Refreshes of instances sharing the database run one at a time too
+     * (see {@link MaterializationService#runExclusively(java.util.concurrent.Callable)}).
+     *
+     * @param event Description of the event triggering the refresh.
+     * @return Queued refresh job.
+     */
+    public RefreshJob scheduleRefresh(String event) {
+        synchronized (refreshJobs) {
+            if (queuedRefreshJob == null) {
+                RefreshJob refreshJob = new RefreshJob(refreshJobIds.incrementAndGet());
+                queuedRefreshJob = refreshJob;
+                refreshJobs.addFirst(refreshJob);
+                while (refreshJobs.size() > REFRESH_JOBS_HISTORY_SIZE) {
+                    refreshJobs.removeLast();
+                }
+                executorService.submit(() -> refresh(refreshJob));
+            }
+            queuedRefreshJob.getEvents().add(event);
+            return queuedRefreshJob.copy();
+        }
+    }
+
+    /**
+     * Gets recent refresh jobs, latest first.
+     *
+     * @return Refresh jobs.
+     */
+    public List<RefreshJob> getRefreshJobs() {
+        synchronized (refreshJobs) {
+            return refreshJobs.stream().map(RefreshJob::copy).collect(Collectors.toList());
+        }
+    }
+
+    protected void refresh(RefreshJob refreshJob) {
+        synchronized (refreshJobs) {
+            if (queuedRefreshJob == refreshJob) {
+                queuedRefreshJob = null; // events from now on need another refresh
+            }
+            refreshJob.setState(RefreshJob.State.RUNNING);
+            refreshJob.setStartedAt(Instant.now());
+        }
+        RefreshJob.State state = RefreshJob.State.SUCCEEDED;
+        String error = null;
+        try {
+            materializationService.runExclusively(() -> {
+                materializationService.synchronize();
+                log.info("Derived tables synchronized.");
+                Map<String, VersionRegistry.HubVersion> hubVersions = versionRegistry.prepare();
+                cacheWarmUpService.warmUp(hubVersions);
+                versionRegistry.publish(hubVersions);
+                // rows of previous versions may be deleted only once no reader resolves them anymore
+                materializationService.cleanUp();
+                searchIndexService.rebuild();
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("Refresh job " + refreshJob.getId() + " failed", e);
+            state = RefreshJob.State.FAILED;
+            error = e.getMessage();
+        }
+        synchronized (refreshJobs) {
+            refreshJob.setState(state);
+            refreshJob.setError(error);
+            refreshJob.setFinishedAt(Instant.now());
+            refreshJob.setDurationMillis(Duration.between(refreshJob.getStartedAt(), refreshJob.getFinishedAt()).toMillis());
+        }
     }
 
     @Autowired
@@ -37,8 +133,28 @@ public class CacheService {
     }
 
     @Autowired
-    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
-        this.jdbcTemplate = jdbcTemplate;
+    public void setMaterializationService(MaterializationService materializationService) {
+        this.materializationService = materializationService;
+    }
+
+    @Autowired
+    public void setSearchIndexService(SearchIndexService searchIndexService) {
+        this.searchIndexService = searchIndexService;
+    }
+
+    @Autowired
+    public void setVersionRegistry(VersionRegistry versionRegistry) {
+        this.versionRegistry = versionRegistry;
+    }
+
+    @Autowired
+    public void setCacheWarmUpService(CacheWarmUpService cacheWarmUpService) {
+        this.cacheWarmUpService = cacheWarmUpService;
+    }
+
+    @Autowired
+    public void setExecutorService(ExecutorService singleThreadExecutor) {
+        this.executorService = singleThreadExecutor;
     }
 
 }
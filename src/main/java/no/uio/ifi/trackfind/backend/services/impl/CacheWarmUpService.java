@@ -0,0 +1,136 @@
+package no.uio.ifi.trackfind.backend.services.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.trackfind.backend.configuration.CacheProperties;
+import no.uio.ifi.trackfind.backend.pojo.TfObjectType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Fills caches for prepared (not yet published) hub versions, so that the first readers of a new version
+ * don't pay for loading the metamodel and running frequent queries.
+ */
+@Slf4j
+@Service
+public class CacheWarmUpService {
+
+    private MetamodelService metamodelService;
+    private SearchService searchService;
+    private VersionRegistry versionRegistry;
+    private CacheProperties cacheProperties;
+    private ExecutorService executorService;
+
+    /**
+     * Warms up caches of hubs whose prepared version differs from the published one. Failures are logged and ignored.
+     *
+     * @param prepared Hub versions returned by {@link VersionRegistry#prepare()}.
+     */
+    public void warmUp(Map<String, VersionRegistry.HubVersion> prepared) throws InterruptedException {
+        if (!cacheProperties.getWarmUp().isEnabled()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, VersionRegistry.HubVersion> published = versionRegistry.getHubVersions();
+        Collection<VersionRegistry.HubVersion> changed = prepared.entrySet().stream()
+                .filter(e -> !e.getValue().equals(published.get(e.getKey())))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
+        if (changed.isEmpty()) {
+            return;
+        }
+        List<Callable<Void>> hubTasks = new ArrayList<>();
+        for (VersionRegistry.HubVersion hubVersion : changed) {
+            hubTasks.add(task(prepared, () -> {
+                metamodelService.getMetamodelSnapshot(hubVersion.getRepository(), hubVersion.getHub());
+                metamodelService.getReferences(hubVersion.getRepository(), hubVersion.getHub());
+            }));
+        }
+        run(hubTasks);
+        List<Callable<Void>> categoryTasks = new ArrayList<>();
+        for (VersionRegistry.HubVersion hubVersion : changed) {
+            String repository = hubVersion.getRepository();
+            String hub = hubVersion.getHub();
+            Collection<TfObjectType> objectTypes = new ArrayList<>();
+            try {
+                versionRegistry.runWith(prepared, () -> objectTypes.addAll(metamodelService.getObjectTypes(repository, hub)));
+            } catch (Exception e) {
+                log.warn("Cache warm-up of " + repository + ": " + hub + " failed", e);
+            }
+            for (TfObjectType objectType : objectTypes) {
+                String category = objectType.getName();
+                categoryTasks.add(task(prepared, () -> {
+                    metamodelService.findObjectTypeByName(repository, hub, category);
+                    metamodelService.getArrayOfObjectsAttributes(repository, hub, category);
+                    metamodelService.getAttributeTypes(repository, hub, category);
+                    metamodelService.getAttributeFacets(repository, hub, category);
+                }));
+            }
+        }
+        for (CacheProperties.Query query : cacheProperties.getWarmUp().getQueries()) {
+            if (changed.stream().anyMatch(h -> h.getRepository().equals(query.getRepository()) && h.getHub().equals(query.getHub()))) {
+                categoryTasks.add(task(prepared, () -> {
+                    try {
+                        searchService.search(query.getRepository(), query.getHub(), query.getQuery(), null, query.getLimit(), null);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+        }
+        run(categoryTasks);
+        log.info("Caches of {} hub(s) warmed up in {} ms", changed.size(), System.currentTimeMillis() - start);
+    }
+
+    protected Callable<Void> task(Map<String, VersionRegistry.HubVersion> prepared, Runnable runnable) {
+        return () -> {
+            versionRegistry.runWith(prepared, runnable);
+            return null;
+        };
+    }
+
+    protected void run(List<Callable<Void>> tasks) throws InterruptedException {
+        for (Future<Void> future : executorService.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                log.warn("Cache warm-up task failed", e.getCause());
+            }
+        }
+    }
+
+    @Autowired
+    public void setMetamodelService(MetamodelService metamodelService) {
+        this.metamodelService = metamodelService;
+    }
+
+    @Autowired
+    public void setSearchService(SearchService searchService) {
+        this.searchService = searchService;
+    }
+
+    @Autowired
+    public void setVersionRegistry(VersionRegistry versionRegistry) {
+        this.versionRegistry = versionRegistry;
+    }
+
+    @Autowired
+    public void setCacheProperties(CacheProperties cacheProperties) {
+        this.cacheProperties = cacheProperties;
+    }
+
+    @Autowired
+    public void setExecutorService(ExecutorService workStealingPool) {
+        this.executorService = workStealingPool;
+    }
+
+}
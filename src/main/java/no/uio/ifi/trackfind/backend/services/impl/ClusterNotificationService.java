@@ -0,0 +1,180 @@
+package no.uio.ifi.trackfind.backend.services.impl;
+
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.trackfind.backend.events.DataReloadEvent;
+import no.uio.ifi.trackfind.backend.pojo.ClusterNotification;
+import no.uio.ifi.trackfind.backend.pojo.Queries;
+import no.uio.ifi.trackfind.backend.pojo.TfHub;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+
+/**
+ * Propagates data changes to other TrackFind instances sharing the database, using PostgreSQL LISTEN/NOTIFY.
+ * Notifications are sent within the transaction making the change, so they are delivered only upon commit.
+ * Upon receiving a notification, an instance refreshes (see {@link CacheService}) or invalidates cached data of the hub
+ * (see {@link VersionRegistry}). Notifications sent by the instance itself are ignored.
+ * While listening, the instance also renews records of versions it has published (see {@link VersionRegistry#heartbeat()}).
+ */
+@Slf4j
+@Service
+public class ClusterNotificationService {
+
+    private static final String CHANNEL = "tf_cluster";
+    private static final int POLL_TIMEOUT = 10000;
+    private static final long RECONNECT_DELAY = 30000;
+    private static final long HEARTBEAT_INTERVAL = 60000;
+
+    @Value("${trackfind.cluster.notifications.enabled}")
+    private boolean enabled;
+
+    private JdbcTemplate jdbcTemplate;
+    private DataSource dataSource;
+    private CacheService cacheService;
+    private VersionRegistry versionRegistry;
+    private Gson gson;
+
+    private volatile boolean running;
+    private Thread listener;
+
+    /**
+     * Notifies other instances about data reload.
+     */
+    @EventListener(DataReloadEvent.class)
+    public void onDataReload(DataReloadEvent dataReloadEvent) {
+        send(new ClusterNotification(versionRegistry.getNode(), ClusterNotification.Type.REFRESH, null, null, dataReloadEvent.getSource() + ": " + dataReloadEvent.getDataProviderName()));
+    }
+
+    /**
+     * Notifies other instances that cached data of the hub must not be reused.
+     *
+     * @param hub Hub.
+     */
+    public void notifyInvalidate(TfHub hub) {
+        send(new ClusterNotification(versionRegistry.getNode(), ClusterNotification.Type.INVALIDATE, hub.getRepository(), hub.getName(), null));
+    }
+
+    protected void send(ClusterNotification notification) {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.query(Queries.NOTIFY, resultSet -> null, CHANNEL, gson.toJson(notification));
+    }
+
+    /**
+     * Starts listening for notifications of other instances.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startListening() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        listener = new Thread(this::listen, "cluster-notifications");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @PreDestroy
+    public void stopListening() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    protected void listen() {
+        boolean reconnecting = false;
+        long lastHeartbeat = 0;
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                log.info("Listening for cluster notifications as {}", versionRegistry.getNode());
+                if (reconnecting) {
+                    // notifications sent while disconnected are lost
+                    cacheService.scheduleRefresh("CLUSTER: reconnected");
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    if (System.currentTimeMillis() - lastHeartbeat >= HEARTBEAT_INTERVAL) {
+                        versionRegistry.heartbeat();
+                        lastHeartbeat = System.currentTimeMillis();
+                    }
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        receive(gson.fromJson(notification.getParameter(), ClusterNotification.class));
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("Listening for cluster notifications failed, reconnecting in " + RECONNECT_DELAY + " ms", e);
+                reconnecting = true;
+                try {
+                    Thread.sleep(RECONNECT_DELAY);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    protected void receive(ClusterNotification notification) {
+        if (versionRegistry.getNode().equals(notification.getNode())) {
+            return;
+        }
+        log.info("Cluster notification received: {}", notification);
+        switch (notification.getType()) {
+            case REFRESH:
+                cacheService.scheduleRefresh("CLUSTER: " + notification.getEvent());
+                break;
+            case INVALIDATE:
+                versionRegistry.invalidate(notification.getRepository(), notification.getHub());
+                break;
+        }
+    }
+
+    @Autowired
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Autowired
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Autowired
+    public void setCacheService(CacheService cacheService) {
+        this.cacheService = cacheService;
+    }
+
+    @Autowired
+    public void setVersionRegistry(VersionRegistry versionRegistry) {
+        this.versionRegistry = versionRegistry;
+    }
+
+    @Autowired
+    public void setGson(Gson gson) {
+        this.gson = gson;
+    }
+
+}
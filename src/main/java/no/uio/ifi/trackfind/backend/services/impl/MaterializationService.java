@@ -0,0 +1,125 @@
+package no.uio.ifi.trackfind.backend.services.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.trackfind.backend.pojo.Queries;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Maintains tables derived from current objects (tf_current_objects, tf_metamodel, etc.) incrementally:
+ * rows of newly activated versions are added, rows of versions which are no longer current are deleted.
+ * These are separate steps, so that readers can keep using rows of previous versions until new ones are published
+ * (see {@link VersionRegistry}).
+ * Versions whose data is present in these tables are tracked in tf_materialized_versions.
+ * Values and arrays of objects are normally extracted while saving objects, see {@link MetamodelExtractionService}.
+ */
+@Slf4j
+@Service
+public class MaterializationService {
+
+    @Value("${trackfind.cluster.published-versions-lease}")
+    private int publishedVersionsLease;
+
+    private JdbcTemplate jdbcTemplate;
+    private DataSource dataSource;
+
+    /**
+     * Runs the task holding a lock shared by all instances using the database, so that their refreshes don't interleave.
+     * The lock belongs to a dedicated connection: it's released when the task completes or when the connection is lost.
+     *
+     * @param task Task to run in the current thread.
+     * @throws Exception in case the task fails or the lock can't be taken.
+     */
+    public void runExclusively(Callable<?> task) throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(Queries.LOCK_REFRESH);
+            try {
+                task.call();
+            } finally {
+                statement.execute(Queries.UNLOCK_REFRESH);
+            }
+        }
+    }
+
+    /**
+     * Adds derived rows of current versions of all hubs. Hubs which didn't change are not touched.
+     * Rows of previous versions are kept, see {@link #cleanUp()}.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void synchronize() {
+        jdbcTemplate.execute(Queries.LOCK_MATERIALIZED_VERSIONS);
+        for (Long versionId : jdbcTemplate.queryForList(Queries.NOT_MATERIALIZED_CURRENT_VERSIONS, Long.class)) {
+            materialize(versionId);
+        }
+    }
+
+    /**
+     * Deletes derived rows of versions which are no longer current.
+     * Must be called only after readers are switched to current versions. Versions still published by some instance
+     * of the cluster are kept, unless the instance hasn't renewed its records within the lease (see {@link VersionRegistry}).
+     * Also deletes values extracted at ingest time for versions that were never materialized (e.g. replaced before activation).
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void cleanUp() {
+        jdbcTemplate.execute(Queries.LOCK_MATERIALIZED_VERSIONS);
+        jdbcTemplate.update(Queries.DELETE_EXPIRED_PUBLISHED_VERSIONS, publishedVersionsLease);
+        for (Long versionId : jdbcTemplate.queryForList(Queries.OUTDATED_MATERIALIZED_VERSIONS, Long.class)) {
+            dematerialize(versionId);
+        }
+        int deleted = jdbcTemplate.update(Queries.DELETE_ORPHANED_OBJECT_VALUES) + jdbcTemplate.update(Queries.DELETE_ORPHANED_ARRAY_OF_OBJECTS);
+        if (deleted != 0) {
+            log.info("{} orphaned rows deleted", deleted);
+        }
+    }
+
+    protected void materialize(long versionId) {
+        long start = System.currentTimeMillis();
+        for (Long objectTypeId : getObjectTypeIds(versionId)) {
+            jdbcTemplate.update(Queries.MATERIALIZE_CURRENT_OBJECTS, objectTypeId);
+            if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(Queries.CHECK_OBJECT_TYPE_EXTRACTED, Boolean.class, objectTypeId))) {
+                // objects saved before extraction at ingest time was introduced, or version re-activated
+                jdbcTemplate.update(Queries.MATERIALIZE_OBJECT_VALUES, objectTypeId);
+                jdbcTemplate.update(Queries.MATERIALIZE_ARRAY_OF_OBJECTS, objectTypeId);
+            }
+            jdbcTemplate.update(Queries.MATERIALIZE_METAMODEL, objectTypeId);
+            jdbcTemplate.update(Queries.MATERIALIZE_ATTRIBUTES, objectTypeId);
+        }
+        jdbcTemplate.update(Queries.ADD_MATERIALIZED_VERSION, versionId);
+        log.info("Version {} materialized in {} ms", versionId, System.currentTimeMillis() - start);
+    }
+
+    protected void dematerialize(long versionId) {
+        for (Long objectTypeId : getObjectTypeIds(versionId)) {
+            for (String table : Queries.MATERIALIZED_TABLES) {
+                jdbcTemplate.update(String.format(Queries.DEMATERIALIZE_OBJECT_TYPE, table), objectTypeId);
+            }
+        }
+        jdbcTemplate.update(Queries.DELETE_MATERIALIZED_VERSION, versionId);
+        log.info("Version {} dematerialized", versionId);
+    }
+
+    protected List<Long> getObjectTypeIds(long versionId) {
+        return jdbcTemplate.queryForList(Queries.OBJECT_TYPE_IDS_BY_VERSION, Long.class, versionId);
+    }
+
+    @Autowired
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Autowired
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+}
@@ -0,0 +1,147 @@
+package no.uio.ifi.trackfind.backend.services.impl;
+
+import com.google.common.collect.Lists;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.trackfind.backend.pojo.ObjectValue;
+import no.uio.ifi.trackfind.backend.pojo.Queries;
+import no.uio.ifi.trackfind.backend.pojo.TfObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Extracts metamodel rows (tf_object_values, tf_array_of_objects) from objects while they are being saved,
+ * so that materialization of the version doesn't need to walk the JSON recursively in the database.
+ * The extraction follows the recursive queries in {@link Queries}: attributes of objects within arrays are flattened,
+ * only scalars (and nulls) become values.
+ */
+@Slf4j
+@Service
+@Transactional
+public class MetamodelExtractionService {
+
+    private static final String ATTRIBUTE_SEPARATOR = "->";
+    private static final int BATCH_SIZE = 10000;
+
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Extracts metamodel rows from saved objects and stores them.
+     *
+     * @param objects Saved objects (with IDs).
+     */
+    public void extractAndSave(Collection<TfObject> objects) {
+        long start = System.currentTimeMillis();
+        Map<Long, Set<String>> arrayOfObjectsAttributes = new ConcurrentHashMap<>();
+        List<Object[]> valueRows = objects.parallelStream().flatMap(o -> {
+            long objectTypeId = o.getObjectType().getId();
+            JsonObject content = JsonParser.parseString(o.getContent()).getAsJsonObject();
+            arrayOfObjectsAttributes.computeIfAbsent(objectTypeId, k -> ConcurrentHashMap.newKeySet()).addAll(extractArrayOfObjectsAttributes(content));
+            return extractValues(o.getId(), objectTypeId, content).stream();
+        }).map(v -> new Object[]{v.getObjectId(), v.getObjectTypeId(), v.getAttribute(), v.getValue(), v.getType()}).collect(Collectors.toList());
+        for (List<Object[]> batch : Lists.partition(valueRows, BATCH_SIZE)) {
+            jdbcTemplate.batchUpdate(Queries.INSERT_OBJECT_VALUE, batch);
+        }
+        List<Object[]> arrayOfObjectsRows = new ArrayList<>();
+        arrayOfObjectsAttributes.forEach((objectTypeId, attributes) -> attributes.forEach(a -> arrayOfObjectsRows.add(new Object[]{objectTypeId, a})));
+        jdbcTemplate.batchUpdate(Queries.INSERT_ARRAY_OF_OBJECTS_ATTRIBUTE, arrayOfObjectsRows);
+        log.info("Extracted {} metamodel values from {} objects in {} ms", valueRows.size(), objects.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Extracts distinct scalar values of the object.
+     *
+     * @param objectId     Object ID.
+     * @param objectTypeId Object type ID.
+     * @param content      Object content.
+     * @return Values with attribute paths.
+     */
+    public Set<ObjectValue> extractValues(long objectId, long objectTypeId, JsonObject content) {
+        Set<ObjectValue> result = new HashSet<>();
+        for (Map.Entry<String, JsonElement> entry : content.entrySet()) {
+            collectValues(objectId, objectTypeId, entry.getKey(), entry.getValue(), result);
+        }
+        return result;
+    }
+
+    /**
+     * Extracts attributes holding arrays of objects.
+     *
+     * @param content Object content.
+     * @return Attribute paths.
+     */
+    public Set<String> extractArrayOfObjectsAttributes(JsonObject content) {
+        Set<String> result = new HashSet<>();
+        for (Map.Entry<String, JsonElement> entry : content.entrySet()) {
+            collectArrayOfObjectsAttributes(entry.getKey(), entry.getValue(), result);
+        }
+        return result;
+    }
+
+    private void collectValues(long objectId, long objectTypeId, String attribute, JsonElement element, Set<ObjectValue> result) {
+        if (element.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                collectValues(objectId, objectTypeId, attribute + ATTRIBUTE_SEPARATOR + entry.getKey(), entry.getValue(), result);
+            }
+        } else if (element.isJsonArray()) {
+            for (JsonElement entry : element.getAsJsonArray()) {
+                if (entry.isJsonObject()) {
+                    for (Map.Entry<String, JsonElement> nestedEntry : entry.getAsJsonObject().entrySet()) {
+                        collectValues(objectId, objectTypeId, attribute + ATTRIBUTE_SEPARATOR + nestedEntry.getKey(), nestedEntry.getValue(), result);
+                    }
+                } else {
+                    collectValues(objectId, objectTypeId, attribute, entry, result);
+                }
+            }
+        } else if (element.isJsonNull()) {
+            result.add(new ObjectValue(objectId, objectTypeId, attribute, null, "null"));
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isNumber()) {
+                // same text as PostgreSQL prints for JSONB numbers
+                result.add(new ObjectValue(objectId, objectTypeId, attribute, new BigDecimal(primitive.getAsString()).toPlainString(), "number"));
+            } else if (primitive.isBoolean()) {
+                result.add(new ObjectValue(objectId, objectTypeId, attribute, String.valueOf(primitive.getAsBoolean()), "boolean"));
+            } else {
+                result.add(new ObjectValue(objectId, objectTypeId, attribute, primitive.getAsString(), "string"));
+            }
+        }
+    }
+
+    private void collectArrayOfObjectsAttributes(String attribute, JsonElement element, Set<String> result) {
+        if (element.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                collectArrayOfObjectsAttributes(attribute + ATTRIBUTE_SEPARATOR + entry.getKey(), entry.getValue(), result);
+            }
+        } else if (element.isJsonArray()) {
+            for (JsonElement entry : element.getAsJsonArray()) {
+                if (entry.isJsonObject()) {
+                    if (entry.getAsJsonObject().size() != 0) {
+                        result.add(attribute);
+                    }
+                    for (Map.Entry<String, JsonElement> nestedEntry : entry.getAsJsonObject().entrySet()) {
+                        collectArrayOfObjectsAttributes(attribute + ATTRIBUTE_SEPARATOR + nestedEntry.getKey(), nestedEntry.getValue(), result);
+                    }
+                } else {
+                    collectArrayOfObjectsAttributes(attribute, entry, result);
+                }
+            }
+        }
+    }
+
+    @Autowired
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+}
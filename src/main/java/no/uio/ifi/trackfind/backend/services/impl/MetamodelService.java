@@ -3,24 +3,21 @@ package no.uio.ifi.trackfind.backend.services.impl;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.trackfind.backend.data.MetamodelSnapshot;
 import no.uio.ifi.trackfind.backend.events.DataReloadEvent;
 import no.uio.ifi.trackfind.backend.operations.Operation;
 import no.uio.ifi.trackfind.backend.pojo.*;
 import no.uio.ifi.trackfind.backend.repositories.*;
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.io.IOException;
-import java.nio.charset.Charset;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -43,65 +40,81 @@ public class MetamodelService {
     protected ObjectTypeRepository objectTypeRepository;
     protected MappingsRepository mappingsRepository;
     protected ApplicationEventPublisher applicationEventPublisher;
+    protected VersionRegistry versionRegistry;
+    protected ClusterNotificationService clusterNotificationService;
 
-    @Cacheable(value = "metamodel-flat", sync = true)
-    public Map<String, Multimap<String, String>> getMetamodelFlat(String repository, String hub, String attributesFilter, String valuesFilter, Set<Long> ids) {
-        String fromClause = "tf_metamodel";
-        if (CollectionUtils.isNotEmpty(ids)) {
-            fromClause = "(" + buildFilteredMetamodelQuery(ids) + ") AS foo";
+    @Cacheable(value = "metamodel-snapshots", keyGenerator = "hubVersionKeyGenerator", sync = true)
+    public MetamodelSnapshot getMetamodelSnapshot(String repository, String hub) {
+        Collection<TfObjectType> objectTypes = metamodelService.getObjectTypes(repository, hub);
+        Map<Long, String> objectTypesMap = objectTypes.stream().collect(Collectors.toMap(TfObjectType::getId, TfObjectType::getName));
+        String objectTypeIds = objectTypes.stream().map(ot -> ot.getId().toString()).collect(Collectors.joining(","));
+        return jdbcTemplate.query(String.format("SELECT object_type_id, attribute, value FROM tf_metamodel WHERE object_type_id IN (%s)", objectTypeIds),
+                resultSet -> {
+                    MetamodelSnapshot.Builder builder = new MetamodelSnapshot.Builder(separator);
+                    while (resultSet.next()) {
+                        String objectTypeName = objectTypesMap.get(resultSet.getLong("object_type_id"));
+                        builder.add(objectTypeName, resultSet.getString("attribute"), resultSet.getString("value"));
+                    }
+                    return builder.build();
+                }
+        );
+    }
+
+    public Map<String, Multimap<String, String>> getMetamodelFlat(String repository, String hub, String attributesFilter, String valuesFilter, Roaring64NavigableMap ids) {
+        if (ids == null || ids.isEmpty()) {
+            return metamodelService.getMetamodelSnapshot(repository, hub).filter(attributesFilter, valuesFilter).toMultimaps();
         }
         Collection<TfObjectType> objectTypes = metamodelService.getObjectTypes(repository, hub);
         Map<Long, String> objectTypesMap = objectTypes.stream().collect(Collectors.toMap(TfObjectType::getId, TfObjectType::getName));
         String objectTypeIds = objectTypes.stream().map(ot -> ot.getId().toString()).collect(Collectors.joining(","));
-        return jdbcTemplate.query(String.format("SELECT object_type_id, attribute, value FROM %s WHERE object_type_id IN (%s)", fromClause, objectTypeIds),
+        StringBuilder whereClause = new StringBuilder(String.format("object_id = ANY(?) AND object_type_id IN (%s)", objectTypeIds));
+        List<String> patterns = new ArrayList<>();
+        if (StringUtils.isNotEmpty(attributesFilter)) {
+            whereClause.append(" AND lower(attribute) LIKE ?");
+            patterns.add(getContainsPattern(attributesFilter));
+        }
+        if (StringUtils.isNotEmpty(valuesFilter)) {
+            whereClause.append(" AND lower(value) LIKE ?");
+            patterns.add(getContainsPattern(valuesFilter));
+        }
+        return jdbcTemplate.query(String.format("SELECT DISTINCT object_type_id, attribute, value FROM tf_object_values WHERE %s", whereClause),
+                preparedStatement -> {
+                    Object[] idsArray = Arrays.stream(ids.toArray()).boxed().toArray();
+                    preparedStatement.setArray(1, preparedStatement.getConnection().createArrayOf("bigint", idsArray));
+                    int index = 2;
+                    for (String pattern : patterns) {
+                        preparedStatement.setString(index++, pattern);
+                    }
+                },
                 resultSet -> {
                     Map<String, Multimap<String, String>> result = new HashMap<>();
                     while (resultSet.next()) {
-                        String attribute = resultSet.getString("attribute");
-                        if (attributesFilter != null && !attribute.toLowerCase().contains(attributesFilter.toLowerCase())) {
-                            continue;
-                        }
-                        String value = resultSet.getString("value");
-                        if (valuesFilter != null && !value.toLowerCase().contains(valuesFilter.toLowerCase())) {
-                            continue;
-                        }
-                        long objectTypeId = resultSet.getLong("object_type_id");
-                        String objectTypeName = objectTypesMap.get(objectTypeId);
-                        result.computeIfAbsent(objectTypeName, k -> HashMultimap.create()).put(attribute, value);
+                        String objectTypeName = objectTypesMap.get(resultSet.getLong("object_type_id"));
+                        result.computeIfAbsent(objectTypeName, k -> HashMultimap.create()).put(resultSet.getString("attribute"), resultSet.getString("value"));
                     }
                     return result;
                 }
         );
     }
 
-    protected String buildFilteredMetamodelQuery(Set<Long> ids) {
-        String schemaSQL;
-        try {
-            schemaSQL = IOUtils.resourceToString("/schema.sql", Charset.defaultCharset());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        String metamodelQuery = StringUtils.substringBetween(schemaSQL,
-                "CREATE MATERIALIZED VIEW IF NOT EXISTS tf_metamodel AS",
-                "WITH DATA;");
-        return metamodelQuery.replace("jsonb_each(tf_current_objects.content) first_level",
-                String.format("jsonb_each(tf_current_objects.content) first_level\nWHERE tf_current_objects.id IN (%s)\n", org.springframework.util.StringUtils.collectionToCommaDelimitedString(ids)));
+    /**
+     * Builds case-insensitive LIKE pattern matching strings containing the filter.
+     *
+     * @param filter Substring to look for.
+     * @return LIKE pattern.
+     */
+    protected String getContainsPattern(String filter) {
+        String escaped = filter.toLowerCase().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return "%" + escaped + "%";
     }
 
     @SuppressWarnings("unchecked")
-    @Cacheable(value = "metamodel-tree", sync = true)
     public Map<String, Map<String, Object>> getMetamodelTree(String repository, String hub, String attributesFilter, String valuesFilter) {
         Map<String, Map<String, Object>> result = new HashMap<>();
-        Collection<TfObjectType> objectTypes = metamodelService.getObjectTypes(repository, hub);
-        Map<String, Multimap<String, String>> fullMetamodelFlat = metamodelService.getMetamodelFlat(repository, hub, attributesFilter, valuesFilter, null);
-        for (TfObjectType objectType : objectTypes) {
-            if (!fullMetamodelFlat.containsKey(objectType.getName())) {
-                continue;
-            }
+        MetamodelSnapshot metamodelSnapshot = metamodelService.getMetamodelSnapshot(repository, hub).filter(attributesFilter, valuesFilter);
+        for (String category : metamodelSnapshot.getCategories()) {
             Map<String, Object> fullMetamodel = new HashMap<>();
-            Multimap<String, String> metamodelFlat = fullMetamodelFlat.get(objectType.getName());
-            for (Map.Entry<String, Collection<String>> entry : metamodelFlat.asMap().entrySet()) {
-                String attribute = entry.getKey();
+            for (String attribute : metamodelSnapshot.getAttributes(category)) {
                 Map<String, Object> metamodel = fullMetamodel;
                 String[] path = attribute.split(separator);
                 for (int i = 0; i < path.length - 1; i++) {
@@ -109,17 +122,32 @@ public class MetamodelService {
                     metamodel = (Map<String, Object>) metamodel.computeIfAbsent(part, k -> new HashMap<String, Object>());
                 }
                 String valuesKey = path[path.length - 1];
-                metamodel.put(valuesKey, entry.getValue());
+                metamodel.put(valuesKey, metamodelSnapshot.getValues(category, attribute));
             }
-            result.put(objectType.getName(), fullMetamodel);
+            result.put(category, fullMetamodel);
         }
         return result;
     }
 
-    @Cacheable(value = "metamodel-categories", sync = true)
+    /**
+     * Gets the version of the hub readers should see: the one published in the {@link VersionRegistry}.
+     * It lags behind the current version in the database until derived data and caches of the latter are ready.
+     *
+     * @param repository Repository name.
+     * @param hub        Hub name.
+     * @return Published version, or current one if nothing is published for the hub yet.
+     */
+    protected Optional<TfVersion> getPublishedVersion(String repository, String hub) {
+        VersionRegistry.HubVersion hubVersion = versionRegistry.getHubVersion(repository, hub);
+        if (hubVersion != null) {
+            return versionRepository.findById(hubVersion.getVersionId());
+        }
+        return hubRepository.findByRepositoryAndName(repository, hub).getCurrentVersion();
+    }
+
+    @Cacheable(value = "metamodel-categories", keyGenerator = "hubVersionKeyGenerator", sync = true)
     public Collection<TfObjectType> getObjectTypes(String repository, String hub) {
-        TfHub hubEntity = hubRepository.findByRepositoryAndName(repository, hub);
-        Optional<TfVersion> currentVersionOptional = hubEntity.getCurrentVersion();
+        Optional<TfVersion> currentVersionOptional = getPublishedVersion(repository, hub);
         if (currentVersionOptional.isEmpty()) {
             return Collections.emptyList();
         }
@@ -127,10 +155,9 @@ public class MetamodelService {
         return currentVersion.getObjectTypes();
     }
 
-    @Cacheable(value = "metamodel-categories-by-name", sync = true)
+    @Cacheable(value = "metamodel-categories-by-name", keyGenerator = "hubVersionKeyGenerator", sync = true)
     public Optional<TfObjectType> findObjectTypeByName(String repository, String hub, String objectTypeName) {
-        TfHub hubEntity = hubRepository.findByRepositoryAndName(repository, hub);
-        Optional<TfVersion> currentVersionOptional = hubEntity.getCurrentVersion();
+        Optional<TfVersion> currentVersionOptional = getPublishedVersion(repository, hub);
         if (currentVersionOptional.isEmpty()) {
             return Optional.empty();
         }
@@ -138,7 +165,7 @@ public class MetamodelService {
         return objectTypeRepository.findByVersionAndName(currentVersion, objectTypeName);
     }
 
-    @Cacheable(value = "metamodel-array-of-objects-attributes", sync = true)
+    @Cacheable(value = "metamodel-array-of-objects-attributes", keyGenerator = "hubVersionKeyGenerator", sync = true)
     public Collection<String> getArrayOfObjectsAttributes(String repository, String hub, String category) {
         TfObjectType objectType = getObjectTypes(repository, hub).stream().filter(c -> c.getName().equals(category)).findAny().orElseThrow(RuntimeException::new);
         return jdbcTemplate.queryForList(
@@ -148,7 +175,7 @@ public class MetamodelService {
     }
 
     @SuppressWarnings("rawtypes")
-    @Cacheable(value = "metamodel-attribute-types", sync = true)
+    @Cacheable(value = "metamodel-attribute-types", keyGenerator = "hubVersionKeyGenerator", sync = true)
     public Map<String, String> getAttributeTypes(String repository, String hub, String category) {
         TfObjectType objectType = metamodelService.getObjectTypes(repository, hub).stream().filter(c -> c.getName().equals(category)).findAny().orElseThrow(RuntimeException::new);
         Map<String, String> metamodel = new HashMap<>();
@@ -163,46 +190,50 @@ public class MetamodelService {
         return metamodel;
     }
 
-    @Cacheable(value = "metamodel-attributes-flat", sync = true)
     public Collection<String> getAttributesFlat(String repository, String hub, String category, String path) {
-        TfObjectType objectType = metamodelService.getObjectTypes(repository, hub).stream().filter(c -> c.getName().equals(category)).findAny().orElseThrow(RuntimeException::new);
-        if (StringUtils.isEmpty(path)) {
-            return jdbcTemplate.queryForList(
-                    "SELECT attribute FROM tf_attributes WHERE object_type_id = ?",
-                    String.class,
-                    objectType.getId());
-        } else {
-            return jdbcTemplate.queryForList(
-                    "SELECT REPLACE(attribute, ?, '') FROM tf_attributes WHERE object_type_id = ? AND lower(attribute) LIKE ?",
-                    String.class,
-                    path.toLowerCase() + "->", objectType.getId(), path.toLowerCase() + "->%");
-        }
+        return metamodelService.getMetamodelSnapshot(repository, hub).getAttributesFlat(category, path);
     }
 
-    @Cacheable(value = "metamodel-attributes", sync = true)
     public Collection<String> getAttributes(String repository, String hub, String category, String path) {
-        return metamodelService.getAttributesFlat(repository, hub, category, path).stream()
-                .map(a -> {
-                    if (a.contains(separator)) {
-                        return a.substring(0, a.indexOf(separator));
-                    } else {
-                        return a;
-                    }
-                })
-                .collect(Collectors.toSet());
+        return metamodelService.getMetamodelSnapshot(repository, hub).getChildAttributes(category, path);
     }
 
-    @Cacheable(value = "metamodel-values", sync = true)
-    public Collection<String> getValues(String repository, String hub, String category, String path, String attributesFilter, String valuesFilter, Set<Long> ids) {
+    public Collection<String> getValues(String repository, String hub, String category, String path, String attributesFilter, String valuesFilter, Roaring64NavigableMap ids) {
+        if (ids == null || ids.isEmpty()) {
+            return metamodelService.getMetamodelSnapshot(repository, hub).getValues(category, path, attributesFilter, valuesFilter);
+        }
         Map<String, Multimap<String, String>> metamodelFlat = metamodelService.getMetamodelFlat(repository, hub, attributesFilter, valuesFilter, ids);
         Multimap<String, String> metamodel = metamodelFlat.get(category);
         return metamodel.get(path).parallelStream().collect(Collectors.toSet());
     }
 
-    @Cacheable(value = "metamodel-references", sync = true)
+    @Cacheable(value = "metamodel-value-counts", keyGenerator = "hubVersionKeyGenerator", sync = true)
+    public Map<String, Long> getValueCounts(String repository, String hub, String category, String path) {
+        TfObjectType objectType = metamodelService.getObjectTypes(repository, hub).stream().filter(c -> c.getName().equals(category)).findAny().orElseThrow(RuntimeException::new);
+        return jdbcTemplate.query(
+                "SELECT value, SUM(objects_count) AS objects_count FROM tf_metamodel WHERE object_type_id = ? AND attribute = ? AND value IS NOT NULL GROUP BY value",
+                resultSet -> {
+                    Map<String, Long> result = new HashMap<>();
+                    while (resultSet.next()) {
+                        result.put(resultSet.getString("value"), resultSet.getLong("objects_count"));
+                    }
+                    return result;
+                },
+                objectType.getId(), path);
+    }
+
+    @Cacheable(value = "metamodel-attribute-facets", keyGenerator = "hubVersionKeyGenerator", sync = true)
+    public Collection<AttributeFacet> getAttributeFacets(String repository, String hub, String category) {
+        TfObjectType objectType = metamodelService.getObjectTypes(repository, hub).stream().filter(c -> c.getName().equals(category)).findAny().orElseThrow(RuntimeException::new);
+        return jdbcTemplate.query(
+                "SELECT attribute, values_count, objects_count FROM tf_attributes WHERE object_type_id = ?",
+                (resultSet, i) -> new AttributeFacet(resultSet.getString("attribute"), resultSet.getLong("values_count"), resultSet.getLong("objects_count")),
+                objectType.getId());
+    }
+
+    @Cacheable(value = "metamodel-references", keyGenerator = "hubVersionKeyGenerator", sync = true)
     public Collection<TfReference> getReferences(String repository, String hub) {
-        TfHub currentHub = hubRepository.findByRepositoryAndName(repository, hub);
-        Optional<TfVersion> currentVersionOptional = currentHub.getCurrentVersion();
+        Optional<TfVersion> currentVersionOptional = getPublishedVersion(repository, hub);
         if (currentVersionOptional.isEmpty()) {
             return Collections.emptyList();
         }
@@ -215,27 +246,22 @@ public class MetamodelService {
         return references;
     }
 
-    @CacheEvict(cacheNames = {
-            "metamodel-references",
-            "search",
-            "gsuite"
-    }, allEntries = true)
     public TfReference addReference(TfReference reference) {
+        TfHub hub = reference.getFromObjectType().getVersion().getHub();
+        jdbcTemplate.update(Queries.UPDATE_REFERENCES_REVISION, reference.getFromObjectType().getVersion().getId());
+        versionRegistry.invalidate(hub);
+        clusterNotificationService.notifyInvalidate(hub);
         return referenceRepository.save(reference);
     }
 
-    @CacheEvict(cacheNames = {
-            "metamodel-references", "search",
-            "gsuite"
-    }, allEntries = true)
     public void deleteReference(TfReference reference) {
+        TfHub hub = reference.getFromObjectType().getVersion().getHub();
+        jdbcTemplate.update(Queries.UPDATE_REFERENCES_REVISION, reference.getFromObjectType().getVersion().getId());
+        versionRegistry.invalidate(hub);
+        clusterNotificationService.notifyInvalidate(hub);
         referenceRepository.delete(reference);
     }
 
-    @CacheEvict(cacheNames = {
-            "metamodel-references", "search",
-            "gsuite"
-    }, allEntries = true)
     public void copyReferencesFromAnotherVersionToCurrentVersion(String repository, String hubName, TfVersion sourceVersion) {
         TfHub hub = hubRepository.findByRepositoryAndName(repository, hubName);
         Optional<TfVersion> currentVersionOptional = hub.getCurrentVersion();
@@ -246,11 +272,6 @@ public class MetamodelService {
         copyReferencesFromOneVersionToAnotherVersion(sourceVersion, currentVersion);
     }
 
-    @CacheEvict(cacheNames = {
-            "metamodel-references",
-            "search",
-            "gsuite"
-    }, allEntries = true)
     public void copyReferencesFromOneVersionToAnotherVersion(TfVersion sourceVersion, TfVersion targetVersion) {
         log.info("Copying references from {} to {}", sourceVersion, targetVersion);
         Collection<TfObjectType> targetObjectTypes = targetVersion.getObjectTypes();
@@ -351,20 +372,6 @@ public class MetamodelService {
         mappingsRepository.saveAll(mappingsAfter);
     }
 
-    @CacheEvict(cacheNames = {
-            "metamodel-array-of-objects-attributes",
-            "metamodel-flat",
-            "metamodel-tree",
-            "metamodel-categories",
-            "metamodel-attributes",
-            "metamodel-attributes-flat",
-            "metamodel-attribute-types",
-            "metamodel-values",
-            "metamodel-references",
-            "metamodel-categories-by-name",
-            "search",
-            "gsuite"
-    }, allEntries = true)
     public void activateVersion(TfVersion version) {
         TfHub hub = version.getHub();
         Optional<TfVersion> currentVersion = hub.getCurrentVersion();
@@ -417,4 +424,14 @@ public class MetamodelService {
         this.applicationEventPublisher = applicationEventPublisher;
     }
 
+    @Autowired
+    public void setVersionRegistry(VersionRegistry versionRegistry) {
+        this.versionRegistry = versionRegistry;
+    }
+
+    @Autowired
+    public void setClusterNotificationService(ClusterNotificationService clusterNotificationService) {
+        this.clusterNotificationService = clusterNotificationService;
+    }
+
 }
@@ -0,0 +1,156 @@
+package no.uio.ifi.trackfind.backend.services.impl;
+
+import com.google.gson.JsonParser;
+import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.trackfind.backend.pojo.Queries;
+import no.uio.ifi.trackfind.backend.query.CategoryIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional in-memory inverted index over current objects, used by {@link SearchService} to pre-filter objects
+ * with bitmap operations instead of JSONB containment checks.
+ * Rebuilt in the background on startup and whenever the data is reloaded; searches fall back to the database until it's ready.
+ * <p>
+ * Scope: top-level conjuncts of a structured query that refer to a single category are evaluated by the index, and
+ * the database gets the matching IDs instead of the conjunct. Joins of categories by references, conjuncts spanning
+ * several categories, raw SQL queries, paging and counting stay in the database, so results and counts are the same
+ * with or without the index. A conjunct matching more than max-prefilter-size objects is left to the database too,
+ * as binding that many IDs costs more than the containment check.
+ * <p>
+ * The index keeps every current object in memory and is rebuilt after each reload, so it's disabled by default.
+ * Enable it when searches filter large categories by selective conditions (e.g. an exact value or a key),
+ * and the heap can hold an index comparable in size to the JSON content of current objects.
+ */
+@Slf4j
+@Service
+public class SearchIndexService {
+
+    @Value("${trackfind.search.index.enabled}")
+    protected boolean enabled;
+
+    @Value("${trackfind.search.index.max-prefilter-size}")
+    protected long maxPrefilterSize;
+
+    @Value("${trackfind.search.fetch-size}")
+    protected int fetchSize;
+
+    private JdbcTemplate jdbcTemplate;
+    private ExecutorService executorService;
+
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Map<String, Map<String, CategoryIndex>> indices = Collections.emptyMap();
+
+    /**
+     * Schedules rebuilding of the index from the (updated) current objects.
+     * The previous index keeps serving meanwhile: categories of hubs that changed have new object type IDs,
+     * so their outdated indices are ignored by {@link SearchService}.
+     */
+    public void rebuild() {
+        long expectedGeneration;
+        synchronized (generation) {
+            expectedGeneration = generation.incrementAndGet();
+        }
+        if (!enabled) {
+            return;
+        }
+        executorService.submit(() -> {
+            try {
+                build(expectedGeneration);
+            } catch (Exception e) {
+                log.error("Failed to build search index", e);
+            }
+        });
+    }
+
+    /**
+     * Gets index of the category.
+     *
+     * @param repository Repository name.
+     * @param hub        Track TfHub name.
+     * @param category   Category name.
+     * @return Index, if built.
+     */
+    public Optional<CategoryIndex> getIndex(String repository, String hub, String category) {
+        Map<String, CategoryIndex> hubIndices = indices.get(repository + ":" + hub);
+        return hubIndices == null ? Optional.empty() : Optional.ofNullable(hubIndices.get(category));
+    }
+
+    /**
+     * Max number of IDs the index can pass to the database as a pre-filter.
+     *
+     * @return Max number of IDs.
+     */
+    public long getMaxPrefilterSize() {
+        return maxPrefilterSize;
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    protected void build(long expectedGeneration) {
+        log.info("Building search index...");
+        long start = System.currentTimeMillis();
+        Map<String, Map<String, CategoryIndex>> newIndices = new HashMap<>();
+        jdbcTemplate.query(Queries.CURRENT_OBJECT_TYPES, resultSet -> {
+            String hubKey = resultSet.getString("repository") + ":" + resultSet.getString("hub");
+            long objectTypeId = resultSet.getLong("id");
+            newIndices.computeIfAbsent(hubKey, k -> new HashMap<>()).put(resultSet.getString("name"), new CategoryIndex(objectTypeId));
+        });
+        for (Map<String, CategoryIndex> hubIndices : newIndices.values()) {
+            for (CategoryIndex categoryIndex : hubIndices.values()) {
+                if (generation.get() != expectedGeneration) {
+                    log.info("Data reloaded while building search index, dropping it");
+                    return;
+                }
+                fill(categoryIndex);
+            }
+        }
+        synchronized (generation) {
+            if (generation.get() != expectedGeneration) {
+                return;
+            }
+            indices = newIndices;
+        }
+        log.info("Search index built in {} ms", System.currentTimeMillis() - start);
+    }
+
+    protected void fill(CategoryIndex categoryIndex) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false); // PostgreSQL driver uses cursors only within a transaction
+            try (PreparedStatement preparedStatement = connection.prepareStatement(Queries.CURRENT_OBJECTS_BY_OBJECT_TYPE)) {
+                preparedStatement.setFetchSize(fetchSize);
+                preparedStatement.setLong(1, categoryIndex.getObjectTypeId());
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        categoryIndex.add(resultSet.getLong("id"), JsonParser.parseString(resultSet.getString("content")).getAsJsonObject());
+                    }
+                }
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+        categoryIndex.optimize();
+    }
+
+    @Autowired
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Autowired
+    public void setExecutorService(ExecutorService singleThreadExecutor) {
+        this.executorService = singleThreadExecutor;
+    }
+
+}
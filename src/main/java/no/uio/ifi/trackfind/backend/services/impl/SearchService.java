@@ -1,49 +1,107 @@
 package no.uio.ifi.trackfind.backend.services.impl;
 
+import com.fasterxml.jackson.databind.util.RawValue;
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import no.uio.ifi.trackfind.backend.pojo.Queries;
+import no.uio.ifi.trackfind.backend.pojo.RawSearchResult;
+import no.uio.ifi.trackfind.backend.pojo.SearchCursor;
+import no.uio.ifi.trackfind.backend.pojo.SearchPage;
+import no.uio.ifi.trackfind.backend.pojo.SearchQueryPlan;
 import no.uio.ifi.trackfind.backend.pojo.SearchResult;
 import no.uio.ifi.trackfind.backend.pojo.TfObjectType;
 import no.uio.ifi.trackfind.backend.pojo.TfReference;
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.lang3.tuple.Pair;
+import no.uio.ifi.trackfind.backend.query.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * Service to perform JSONB-oriented search for datasets in the database.
+ * Queries are executed by the read-only "search" role through a dedicated bounded connection pool.
  */
 @Slf4j
 @Service
 public class SearchService {
 
+    private static final String TOTAL_COLUMN = "tf_total";
+    private static final String QUERY_CANCELED_SQL_STATE = "57014";
+    private static final String TOO_MANY_CONNECTIONS_SQL_STATE = "53300";
+
     @Value("${trackfind.separator}")
     protected String separator;
 
+    @Value("${trackfind.search.pool-size}")
+    protected int poolSize;
+
+    @Value("${trackfind.search.max-streams}")
+    protected int maxStreams;
+
+    @Value("${trackfind.search.connection-timeout}")
+    protected long connectionTimeout;
+
+    @Value("${trackfind.search.statement-timeout}")
+    protected int statementTimeout;
+
+    @Value("${trackfind.search.fetch-size}")
+    protected int fetchSize;
+
+    @Value("${trackfind.search.count-budget}")
+    protected long countBudget;
+
     private String jdbcUrl;
 
     private JdbcTemplate jdbcTemplate;
     private MetamodelService metamodelService;
+    private SearchIndexService searchIndexService;
+    private SearchService searchService;
+    private MeterRegistry meterRegistry;
     private Gson gson;
 
-    private Connection connection;
+    private HikariDataSource dataSource;
+    private Semaphore streams;
 
     @SuppressWarnings("ConstantConditions")
     @PostConstruct
-    private void init() throws SQLException {
+    private void init() {
         if (jdbcTemplate.queryForObject(Queries.CHECK_SEARCH_USER_EXISTS, Integer.TYPE) == 0) {
             jdbcTemplate.execute(Queries.CREATE_SEARCH_USER);
         }
-        connection = DriverManager.getConnection(jdbcUrl, "search", "search");
+        jdbcTemplate.execute(Queries.GRANT_SEARCH_USER); // tf_current_objects may have been re-created
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("search");
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername("search");
+        config.setPassword("search");
+        config.setReadOnly(true);
+        config.setMaximumPoolSize(poolSize);
+        config.setConnectionTimeout(connectionTimeout);
+        config.setMetricRegistry(meterRegistry); // exposes "hikaricp.connections.*" metrics, incl. pending (saturation)
+        dataSource = new HikariDataSource(config);
+        // streams are paced by clients: some connections must stay available for other searches
+        streams = new Semaphore(Math.max(1, Math.min(maxStreams, poolSize - 1)));
+    }
+
+    @PreDestroy
+    private void destroy() {
+        dataSource.close();
     }
 
     /**
@@ -54,24 +112,114 @@ public class SearchService {
      * @param query      Search query.
      * @param categories Comma-separated categories.
      * @param limit      Max number of entries to return. 0 for unlimited.
-     * @return Found entries with set of IDs.
+     * @param cursor     Token of the page to start from (optional).
+     * @return Found entries with set of IDs and token of the next page.
      */
-    @Cacheable(value = "search", sync = true)
-    public Pair<Set<Long>, Collection<SearchResult>> search(String repository, String hub, String query, Collection<String> categories, long limit) throws SQLException {
-        Collection<TfReference> references = metamodelService.getReferences(repository, hub);
+    @Cacheable(value = "search", keyGenerator = "hubVersionKeyGenerator", sync = true)
+    public SearchPage<SearchResult> search(String repository, String hub, String query, Collection<String> categories, long limit, String cursor) throws SQLException {
+        SearchCursor searchCursor = decodeCursor(cursor);
+        SearchQueryPlan plan = compile(repository, hub, categories, Projection.RESULTS, searchCursor, limit);
+        return executeSearchQuery(plan, compilePredicate(repository, hub, query), searchCursor, limit, 0, this::mapSearchResult);
+    }
 
-        Collection<TfObjectType> objectTypesFromReferences = new HashSet<>();
-        references.forEach(r -> objectTypesFromReferences.addAll(Arrays.asList(r.getFromObjectType(), r.getToObjectType())));
+    /**
+     * Searches for entries using provided query and counts all the matching entries within the same round-trip.
+     * If exact counting takes longer than configured budget, the page is fetched separately and the count is estimated
+     * by the query planner.
+     *
+     * @param repository Repository name.
+     * @param hub        Track TfHub name.
+     * @param query      Search query.
+     * @param categories Comma-separated categories.
+     * @param limit      Max number of entries to return. 0 for unlimited.
+     * @param cursor     Token of the page to start from (optional).
+     * @return Found entries with set of IDs, token of the next page and number of matching entries starting from the cursor.
+     */
+    @Cacheable(value = "search-with-total", keyGenerator = "hubVersionKeyGenerator", sync = true)
+    public SearchPage<SearchResult> searchWithTotal(String repository, String hub, String query, Collection<String> categories, long limit, String cursor) throws SQLException {
+        SearchCursor searchCursor = decodeCursor(cursor);
+        SearchQueryPlan plan = compile(repository, hub, categories, Projection.RESULTS_WITH_TOTAL, searchCursor, limit);
+        try {
+            return executeSearchQuery(plan, compilePredicate(repository, hub, query), searchCursor, limit, countBudget, this::mapSearchResult);
+        } catch (SQLException e) {
+            if (!QUERY_CANCELED_SQL_STATE.equals(e.getSQLState())) {
+                throw e;
+            }
+            log.info("Exact count exceeded the budget of {} ms, estimating instead", countBudget);
+        }
+        SearchPage<SearchResult> page = search(repository, hub, query, categories, limit, cursor);
+        page.setTotal(estimateCount(compile(repository, hub, categories, Projection.RESULTS, searchCursor, 0), compilePredicate(repository, hub, query), searchCursor));
+        page.setEstimated(true);
+        return page;
+    }
 
-        Collection<String> objectTypesToSelect;
-        if (CollectionUtils.isEmpty(categories)) {
-            objectTypesToSelect = objectTypesFromReferences.stream().map(TfObjectType::getName).collect(Collectors.toSet());
-        } else {
-            objectTypesToSelect = categories;
+    /**
+     * Searches for entries using provided query, keeping their content unparsed.
+     *
+     * @param repository Repository name.
+     * @param hub        Track TfHub name.
+     * @param query      Search query.
+     * @param categories Comma-separated categories.
+     * @param limit      Max number of entries to return. 0 for unlimited.
+     * @param cursor     Token of the page to start from (optional).
+     * @return Found entries with raw JSON content, set of IDs and token of the next page.
+     */
+    @Cacheable(value = "search-raw", keyGenerator = "hubVersionKeyGenerator", sync = true)
+    public SearchPage<RawSearchResult> searchRaw(String repository, String hub, String query, Collection<String> categories, long limit, String cursor) throws SQLException {
+        SearchCursor searchCursor = decodeCursor(cursor);
+        SearchQueryPlan plan = compile(repository, hub, categories, Projection.RESULTS, searchCursor, limit);
+        return executeSearchQuery(plan, compilePredicate(repository, hub, query), searchCursor, limit, 0, this::mapRawSearchResult);
+    }
+
+    /**
+     * Streams entries found by provided query one by one, without collecting them in memory.
+     * Rows are read through a server-side cursor in batches of configured fetch size.
+     * As a stream holds its connection until the consumer is done, the number of concurrent streams is limited
+     * (see {@link #isStreamAvailable()}).
+     *
+     * @param repository Repository name.
+     * @param hub        Track TfHub name.
+     * @param query      Search query.
+     * @param categories Comma-separated categories.
+     * @param limit      Max number of entries to return. 0 for unlimited.
+     * @param consumer   Callback receiving found entries as soon as they are fetched.
+     * @throws SQLException in case of query failure, also if no stream becomes available within the connection timeout.
+     */
+    public void stream(String repository, String hub, String query, Collection<String> categories, long limit, Consumer<RawSearchResult> consumer) throws SQLException {
+        SearchQueryPlan plan = compile(repository, hub, categories, Projection.RESULTS, null, limit);
+        try {
+            if (!streams.tryAcquire(connectionTimeout, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Too many concurrent streams", TOO_MANY_CONNECTIONS_SQL_STATE);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a stream", e);
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false); // PostgreSQL driver uses cursors only within a transaction
+            try (PreparedStatement preparedStatement = prepareStatement(connection, "", plan, compilePredicate(repository, hub, query), null, limit)) {
+                preparedStatement.setFetchSize(fetchSize);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    Collection<String> contentColumns = getContentColumns(resultSet.getMetaData());
+                    while (resultSet.next()) {
+                        consumer.accept(mapRawSearchResult(resultSet, contentColumns, null));
+                    }
+                }
+            } finally {
+                connection.rollback();
+            }
+        } finally {
+            streams.release();
         }
+    }
 
-        String fullQueryString = buildSearchQuery(repository, hub, references, objectTypesFromReferences, new HashSet<>(objectTypesToSelect), query, limit, false);
-        return executeSearchQuery(fullQueryString);
+    /**
+     * Checks whether a stream can be started right away, so that callers can reject requests before responding.
+     *
+     * @return true if the number of concurrent streams is below the limit.
+     */
+    public boolean isStreamAvailable() {
+        return streams.availablePermits() > 0;
     }
 
     /**
@@ -83,70 +231,64 @@ public class SearchService {
      * @param categories Comma-separated categories.
      * @return Count of entries.
      */
-    @Cacheable(value = "count", sync = true)
+    @Cacheable(value = "count", keyGenerator = "hubVersionKeyGenerator", sync = true)
     public int count(String repository, String hub, String query, Collection<String> categories) throws SQLException {
-        Collection<TfReference> references = metamodelService.getReferences(repository, hub);
-
-        Collection<TfObjectType> objectTypesFromReferences = new HashSet<>();
-        references.forEach(r -> objectTypesFromReferences.addAll(Arrays.asList(r.getFromObjectType(), r.getToObjectType())));
-
-        Collection<String> objectTypesToSelect;
-        if (CollectionUtils.isEmpty(categories)) {
-            objectTypesToSelect = objectTypesFromReferences.stream().map(TfObjectType::getName).collect(Collectors.toSet());
-        } else {
-            objectTypesToSelect = categories;
+        SearchQueryPlan plan = compile(repository, hub, categories, Projection.COUNT, null, 0);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = prepareStatement(connection, "", plan, compilePredicate(repository, hub, query), null, 0);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
         }
-
-        String fullQueryString = buildSearchQuery(repository, hub, references, objectTypesFromReferences, new HashSet<>(objectTypesToSelect), query, 0, true);
-        return executeCountQuery(fullQueryString);
     }
 
-    protected String buildSearchQuery(String repository,
-                                      String hub,
-                                      Collection<TfReference> references,
-                                      Collection<TfObjectType> objectTypesFromReferences,
-                                      Collection<String> objectTypeNamesToSelect,
-                                      String query,
-                                      long limit,
-                                      boolean count) {
+    /**
+     * Compiles search query skeleton: selected columns, joins by references, object types and paging conditions.
+     * The user predicate, object type IDs, cursor and limit are not part of the skeleton, so it can be reused
+     * (and prepared by the database) across searches.
+     *
+     * @param repository Repository name.
+     * @param hub        Track TfHub name.
+     * @param categories Categories to select.
+     * @param projection Shape of the output.
+     * @param withCursor Whether to add keyset pagination condition.
+     * @param withLimit  Whether to add limit.
+     * @return Compiled query.
+     */
+    @Cacheable(value = "search-plans", keyGenerator = "hubVersionKeyGenerator", sync = true)
+    public SearchQueryPlan compileSearchQuery(String repository, String hub, SortedSet<String> categories, Projection projection, boolean withCursor, boolean withLimit) {
+        Collection<TfReference> references = metamodelService.getReferences(repository, hub);
+
+        SortedSet<String> objectTypeNamesToSelect = new TreeSet<>(categories);
+        if (objectTypeNamesToSelect.isEmpty()) {
+            references.forEach(r -> objectTypeNamesToSelect.addAll(Arrays.asList(r.getFromObjectType().getName(), r.getToObjectType().getName())));
+        }
         // temporary WA
         objectTypeNamesToSelect.add("doc_info");
         objectTypeNamesToSelect.add("collection_info");
 
         StringBuilder fullQuery = new StringBuilder("SELECT ");
 
-        if (!count) {
+        if (projection != Projection.COUNT) {
             addDistinctClause(objectTypeNamesToSelect, fullQuery);
+            if (projection == Projection.RESULTS_WITH_TOTAL) {
+                fullQuery.append(", COUNT(*) OVER () ").append(TOTAL_COLUMN).append(" ");
+            }
         } else {
             fullQuery.append("COUNT(*) ");
         }
 
         fullQuery.append("\nFROM ");
-
-        if (CollectionUtils.isNotEmpty(objectTypeNamesToSelect)) {
-            for (String objectTypeName : objectTypeNamesToSelect) {
-                fullQuery.append("tf_current_objects ").append(objectTypeName).append(", ");
-            }
-        } else if (CollectionUtils.isNotEmpty(objectTypesFromReferences)) {
-            for (TfObjectType objectType : objectTypesFromReferences) {
-                fullQuery.append("tf_current_objects ").append(objectType.getName()).append(", ");
-            }
-        }
-
-        if (fullQuery.toString().endsWith(", ")) {
-            fullQuery.setLength(fullQuery.length() - 2);
-        }
+        fullQuery.append(objectTypeNamesToSelect.stream().map(c -> "tf_current_objects " + c).collect(Collectors.joining(", ")));
         fullQuery.append("\nWHERE ");
 
-        if (CollectionUtils.isNotEmpty(objectTypeNamesToSelect)) {
-            for (String objectTypeName : objectTypeNamesToSelect) {
-                Optional<TfObjectType> objectType = metamodelService.findObjectTypeByName(repository, hub, objectTypeName);
-                objectType.ifPresent(ot -> fullQuery.append(ot.getName()).append(".object_type_id = ").append(ot.getId()).append(" AND "));
-            }
-        } else if (CollectionUtils.isNotEmpty(objectTypesFromReferences)) {
-            for (TfObjectType objectType : objectTypesFromReferences) {
-                fullQuery.append(objectType.getName()).append(".object_type_id = ").append(objectType.getId()).append(" AND ");
-            }
+        List<Long> objectTypeIds = new ArrayList<>();
+        for (String objectTypeName : objectTypeNamesToSelect) {
+            Optional<TfObjectType> objectType = metamodelService.findObjectTypeByName(repository, hub, objectTypeName);
+            objectType.ifPresent(ot -> {
+                fullQuery.append(ot.getName()).append(".object_type_id = ? AND ");
+                objectTypeIds.add(ot.getId());
+            });
         }
 
         fullQuery.append("\n");
@@ -154,10 +296,8 @@ public class SearchService {
         for (TfReference reference : references) {
             String fromObjectType = reference.getFromObjectType().getName();
             String toObjectType = reference.getToObjectType().getName();
-            if (CollectionUtils.isNotEmpty(objectTypeNamesToSelect)) {
-                if (!objectTypeNamesToSelect.contains(fromObjectType) || !objectTypeNamesToSelect.contains(toObjectType)) {
-                    continue;
-                }
+            if (!objectTypeNamesToSelect.contains(fromObjectType) || !objectTypeNamesToSelect.contains(toObjectType)) {
+                continue;
             }
             String fromAttribute = reference.getFromAttribute();
             String toAttribute = reference.getToAttribute();
@@ -178,13 +318,141 @@ public class SearchService {
 
         fullQuery.append("\n");
 
-        fullQuery.append(query);
+        String idColumns = objectTypeNamesToSelect.stream().map(c -> c + ".id").collect(Collectors.joining(", "));
+        if (withCursor) {
+            fullQuery.append("(")
+                    .append(idColumns)
+                    .append(") > (")
+                    .append(objectTypeNamesToSelect.stream().map(c -> "?").collect(Collectors.joining(", ")))
+                    .append(") AND\n");
+        }
+
+        StringBuilder suffix = new StringBuilder();
+        if (projection != Projection.COUNT) {
+            suffix.append("\nORDER BY ").append(idColumns);
+        }
+        if (withLimit) {
+            suffix.append(" LIMIT ?");
+        }
+
+        return new SearchQueryPlan(new ArrayList<>(objectTypeNamesToSelect), objectTypeIds, fullQuery.toString(), suffix.toString(), withCursor, withLimit);
+    }
+
+    protected SearchQueryPlan compile(String repository, String hub, Collection<String> categories, Projection projection, SearchCursor cursor, long limit) {
+        SortedSet<String> sortedCategories = categories == null ? new TreeSet<>() : new TreeSet<>(categories);
+        SearchQueryPlan plan = searchService.compileSearchQuery(repository, hub, sortedCategories, projection, cursor != null, limit != 0);
+        if (cursor != null && !cursor.getCategories().equals(plan.getCategories())) {
+            throw new IllegalArgumentException("Cursor doesn't match selected categories: " + cursor.getCategories());
+        }
+        return plan;
+    }
 
-        if (limit != 0) {
-            fullQuery.append(" LIMIT ").append(limit);
+    /**
+     * Translates search query to GIN-index-friendly SQL. Queries not fitting structured query grammar are used as is.
+     * Top-level conditions on a single category are evaluated by the in-memory search index (when it's built)
+     * and passed to the database as a list of matching IDs.
+     *
+     * @param repository Repository name.
+     * @param hub        Track TfHub name.
+     * @param query      Search query.
+     * @return Search predicate.
+     */
+    protected SearchPredicate compilePredicate(String repository, String hub, String query) {
+        try {
+            QueryNode root = new QueryParser(query).parse();
+            List<QueryNode> conjuncts = root instanceof BooleanNode && ((BooleanNode) root).isConjunction() ? ((BooleanNode) root).getChildren() : List.of(root);
+            List<String> conditions = new ArrayList<>();
+            List<Object> parameters = new ArrayList<>();
+            List<QueryNode> remaining = new ArrayList<>();
+            for (QueryNode conjunct : conjuncts) {
+                Set<String> categories = new HashSet<>();
+                collectCategories(conjunct, categories);
+                Roaring64NavigableMap ids = categories.size() == 1 ? prefilter(repository, hub, categories.iterator().next(), conjunct) : null;
+                if (ids == null) {
+                    remaining.add(conjunct);
+                } else {
+                    conditions.add(categories.iterator().next() + ".id = ANY(?)");
+                    parameters.add(ids);
+                }
+            }
+            if (conditions.isEmpty()) {
+                return QueryTranslator.translate(root);
+            }
+            if (!remaining.isEmpty()) {
+                SearchPredicate predicate = QueryTranslator.translate(remaining.size() == 1 ? remaining.get(0) : new BooleanNode(true, remaining));
+                conditions.add(predicate.getSql());
+                parameters.addAll(predicate.getParameters());
+            }
+            return new SearchPredicate(conditions.stream().map(c -> "(" + c + ")").collect(Collectors.joining(" AND ")), parameters);
+        } catch (QueryParseException e) {
+            log.debug("Using raw SQL query: {}", e.getMessage());
+            return SearchPredicate.raw(query);
         }
+    }
 
-        return fullQuery.toString().replaceAll("\\?", "\\?\\?");
+    protected Roaring64NavigableMap prefilter(String repository, String hub, String category, QueryNode condition) {
+        Optional<CategoryIndex> index = searchIndexService.getIndex(repository, hub, category);
+        Optional<TfObjectType> objectType = metamodelService.findObjectTypeByName(repository, hub, category);
+        if (index.isEmpty() || objectType.isEmpty() || index.get().getObjectTypeId() != objectType.get().getId()) {
+            return null; // not built yet or outdated
+        }
+        Roaring64NavigableMap ids;
+        try {
+            ids = index.get().evaluate(condition);
+        } catch (QueryParseException e) {
+            return null;
+        }
+        if (ids.getLongCardinality() > searchIndexService.getMaxPrefilterSize()) {
+            return null;
+        }
+        return ids;
+    }
+
+    private void collectCategories(QueryNode node, Set<String> categories) {
+        if (node instanceof PredicateNode) {
+            categories.add(((PredicateNode) node).getCategory());
+        } else if (node instanceof NotNode) {
+            collectCategories(((NotNode) node).getChild(), categories);
+        } else if (node instanceof BooleanNode) {
+            ((BooleanNode) node).getChildren().forEach(c -> collectCategories(c, categories));
+        }
+    }
+
+    protected SearchCursor decodeCursor(String cursor) {
+        return cursor == null ? null : SearchCursor.decode(cursor);
+    }
+
+    protected PreparedStatement prepareStatement(Connection connection, String statementPrefix, SearchQueryPlan plan, SearchPredicate predicate, SearchCursor cursor, long limit) throws SQLException {
+        String sql = statementPrefix + plan.toSQL(predicate);
+        List<Object> parameters = new ArrayList<>(plan.getObjectTypeIds());
+        if (plan.isWithCursor()) {
+            parameters.addAll(cursor.getIds());
+        }
+        parameters.addAll(predicate.getParameters());
+        if (plan.isWithLimit()) {
+            parameters.add(limit);
+        }
+        if (log.isInfoEnabled()) {
+            List<Object> printableParameters = parameters.stream().map(p -> p instanceof Roaring64NavigableMap ? ((Roaring64NavigableMap) p).getLongCardinality() + " IDs" : p).collect(Collectors.toList());
+            log.info("Executing search query: {} with parameters {}", sql, printableParameters);
+        }
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        try {
+            for (int i = 0; i < parameters.size(); i++) {
+                Object parameter = parameters.get(i);
+                if (parameter instanceof Roaring64NavigableMap) {
+                    Object[] ids = Arrays.stream(((Roaring64NavigableMap) parameter).toArray()).boxed().toArray();
+                    preparedStatement.setArray(i + 1, connection.createArrayOf("bigint", ids));
+                } else {
+                    preparedStatement.setObject(i + 1, parameter);
+                }
+            }
+            preparedStatement.setQueryTimeout(statementTimeout);
+        } catch (SQLException e) {
+            preparedStatement.close();
+            throw e;
+        }
+        return preparedStatement;
     }
 
     private void addDistinctClause(Collection<String> objectTypeNamesToSelect, StringBuilder fullQuery) {
@@ -198,40 +466,123 @@ public class SearchService {
         fullQuery.setLength(fullQuery.length() - 2);
     }
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    protected Pair<Set<Long>, Collection<SearchResult>> executeSearchQuery(String fullQueryString) throws SQLException {
-        log.info("Executing search query: {}", fullQueryString);
-        PreparedStatement preparedStatement = connection.prepareStatement(fullQueryString);
-        ResultSet resultSet = preparedStatement.executeQuery();
-        ResultSetMetaData metaData = resultSet.getMetaData();
+    protected <T> SearchPage<T> executeSearchQuery(SearchQueryPlan plan, SearchPredicate predicate, SearchCursor cursor, long limit, long timeoutMillis, ResultMapper<T> resultMapper) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            if (timeoutMillis == 0) {
+                return executeSearchQuery(connection, plan, predicate, cursor, limit, resultMapper);
+            }
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET LOCAL statement_timeout = " + timeoutMillis);
+                return executeSearchQuery(connection, plan, predicate, cursor, limit, resultMapper);
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    protected <T> SearchPage<T> executeSearchQuery(Connection connection, SearchQueryPlan plan, SearchPredicate predicate, SearchCursor cursor, long limit, ResultMapper<T> resultMapper) throws SQLException {
+        try (PreparedStatement preparedStatement = prepareStatement(connection, "", plan, predicate, cursor, limit);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            List<String> contentColumns = getContentColumns(resultSet.getMetaData());
+            boolean withTotal = hasColumn(resultSet.getMetaData(), TOTAL_COLUMN);
+            Long total = withTotal ? 0L : null;
+            Roaring64NavigableMap ids = new Roaring64NavigableMap();
+            Collection<T> results = new ArrayList<>();
+            List<Long> lastIds = null;
+            while (resultSet.next()) {
+                if (withTotal) {
+                    total = resultSet.getLong(TOTAL_COLUMN);
+                }
+                results.add(resultMapper.map(resultSet, contentColumns, ids));
+                if (limit != 0 && results.size() == limit) {
+                    lastIds = new ArrayList<>();
+                    for (String contentColumn : contentColumns) {
+                        lastIds.add(resultSet.getLong(contentColumn.replace("_content", "_id")));
+                    }
+                }
+            }
+            String nextCursor = null;
+            if (lastIds != null) {
+                List<String> categories = contentColumns.stream().map(c -> c.replace("_content", "")).collect(Collectors.toList());
+                nextCursor = new SearchCursor(categories, lastIds).encode();
+            }
+            return new SearchPage<>(ids, results, nextCursor, total, false);
+        }
+    }
+
+    protected long estimateCount(SearchQueryPlan plan, SearchPredicate predicate, SearchCursor cursor) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = prepareStatement(connection, "EXPLAIN (FORMAT JSON) ", plan, predicate, cursor, 0);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            resultSet.next();
+            JsonObject queryPlan = JsonParser.parseString(resultSet.getString(1)).getAsJsonArray().get(0).getAsJsonObject().getAsJsonObject("Plan");
+            return queryPlan.get("Plan Rows").getAsLong();
+        }
+    }
+
+    protected boolean hasColumn(ResultSetMetaData metaData, String column) throws SQLException {
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (column.equals(metaData.getColumnName(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected List<String> getContentColumns(ResultSetMetaData metaData) throws SQLException {
         int columnCount = metaData.getColumnCount();
-        Collection<String> objectTypesToSelect = new HashSet<>();
+        List<String> contentColumns = new ArrayList<>();
         for (int i = 1; i <= columnCount; i++) {
             String columnName = metaData.getColumnName(i);
             if (columnName.endsWith("_content")) {
-                objectTypesToSelect.add(columnName);
+                contentColumns.add(columnName);
             }
         }
-        Set<Long> ids = new HashSet<>();
-        Collection<SearchResult> results = new ArrayList<>();
-        while (resultSet.next()) {
-            SearchResult searchResult = new SearchResult();
-            for (String objectTypeName : objectTypesToSelect) {
-                String json = resultSet.getString(objectTypeName);
-                ids.add(resultSet.getLong(objectTypeName.replace("_content", "_id")));
-                searchResult.getContent().put(objectTypeName.replace("_content", ""), new HashMap(gson.fromJson(json, Map.class)));
+        return contentColumns;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected SearchResult mapSearchResult(ResultSet resultSet, Collection<String> contentColumns, Roaring64NavigableMap ids) throws SQLException {
+        SearchResult searchResult = new SearchResult();
+        for (String objectTypeName : contentColumns) {
+            String json = resultSet.getString(objectTypeName);
+            if (ids != null) {
+                ids.addLong(resultSet.getLong(objectTypeName.replace("_content", "_id")));
+            }
+            searchResult.getContent().put(objectTypeName.replace("_content", ""), new HashMap(gson.fromJson(json, Map.class)));
+        }
+        return searchResult;
+    }
+
+    protected RawSearchResult mapRawSearchResult(ResultSet resultSet, Collection<String> contentColumns, Roaring64NavigableMap ids) throws SQLException {
+        RawSearchResult searchResult = new RawSearchResult();
+        for (String objectTypeName : contentColumns) {
+            if (ids != null) {
+                ids.addLong(resultSet.getLong(objectTypeName.replace("_content", "_id")));
             }
-            results.add(searchResult);
+            searchResult.getContent().put(objectTypeName.replace("_content", ""), new RawValue(resultSet.getString(objectTypeName)));
         }
-        return Pair.of(ids, results);
+        return searchResult;
+    }
+
+    /**
+     * Shape of the search query output.
+     */
+    public enum Projection {
+        RESULTS, RESULTS_WITH_TOTAL, COUNT
     }
 
-    protected int executeCountQuery(String fullQueryString) throws SQLException {
-        log.info("Executing count query: {}", fullQueryString);
-        PreparedStatement preparedStatement = connection.prepareStatement(fullQueryString);
-        ResultSet resultSet = preparedStatement.executeQuery();
-        resultSet.next();
-        return resultSet.getInt(1);
+    /**
+     * Maps current row of the result set to a search result.
+     *
+     * @param <T> Search result type.
+     */
+    @FunctionalInterface
+    protected interface ResultMapper<T> {
+
+        T map(ResultSet resultSet, Collection<String> contentColumns, Roaring64NavigableMap ids) throws SQLException;
+
     }
 
     @Value("${spring.datasource.url}")
@@ -249,6 +600,21 @@ public class SearchService {
         this.metamodelService = metamodelService;
     }
 
+    @Autowired
+    public void setSearchIndexService(SearchIndexService searchIndexService) {
+        this.searchIndexService = searchIndexService;
+    }
+
+    @Autowired
+    public void setSearchService(SearchService searchService) {
+        this.searchService = searchService;
+    }
+
+    @Autowired
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
     @Autowired
     public void setGson(Gson gson) {
         this.gson = gson;
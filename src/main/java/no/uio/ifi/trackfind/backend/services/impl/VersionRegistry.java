@@ -0,0 +1,231 @@
+package no.uio.ifi.trackfind.backend.services.impl;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.trackfind.backend.pojo.Queries;
+import no.uio.ifi.trackfind.backend.pojo.TfHub;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the version of each hub that readers should see. Cache entries of hub-scoped data are keyed by it
+ * (see {@link no.uio.ifi.trackfind.backend.configuration.HubVersionKeyGenerator}), so switching a hub to another
+ * version redirects lookups to new entries without evicting cached data of other hubs. Stale entries age out.
+ * <p>
+ * Switching happens in two steps: new versions are prepared first, so that caches can be warmed up for them
+ * (see {@link #runWith(Map, Runnable)}), and published afterwards.
+ * <p>
+ * Published versions are recorded in tf_published_versions under the ID of this instance, so that derived rows of
+ * versions which are no longer current are not deleted while this instance still reads them
+ * (see {@link MaterializationService#cleanUp()}). Records are renewed by {@link #heartbeat()}.
+ */
+@Slf4j
+@Service
+public class VersionRegistry {
+
+    private final String node = UUID.randomUUID().toString();
+    private final AtomicLong revisions = new AtomicLong();
+    private final ThreadLocal<Map<String, HubVersion>> preparedHubVersions = new ThreadLocal<>();
+    private volatile Map<String, HubVersion> hubVersions = Collections.emptyMap();
+
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Gets ID of this instance within the cluster.
+     *
+     * @return Node ID.
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * Gets version of the hub as seen by readers.
+     *
+     * @param repository Repository name.
+     * @param hub        Hub name.
+     * @return Hub version or null if the hub has no current version (yet).
+     */
+    public HubVersion getHubVersion(String repository, String hub) {
+        Map<String, HubVersion> prepared = preparedHubVersions.get();
+        return (prepared == null ? hubVersions : prepared).get(getHubKey(repository, hub));
+    }
+
+    /**
+     * Gets published versions of all hubs.
+     *
+     * @return Hub versions by "repository:hub".
+     */
+    public Map<String, HubVersion> getHubVersions() {
+        return hubVersions;
+    }
+
+    /**
+     * Reads current versions of hubs without publishing them.
+     *
+     * @return Hub versions by "repository:hub". Hubs whose current version and references didn't change keep their published version.
+     */
+    public Map<String, HubVersion> prepare() {
+        Map<String, HubVersion> published = hubVersions;
+        Map<String, HubVersion> result = new HashMap<>();
+        jdbcTemplate.query(Queries.CURRENT_HUB_VERSIONS, resultSet -> {
+            String repository = resultSet.getString("repository");
+            String hub = resultSet.getString("hub");
+            long versionId = resultSet.getLong("version_id");
+            long referencesRevision = resultSet.getLong("references_revision");
+            HubVersion hubVersion = published.get(getHubKey(repository, hub));
+            // references may have changed without this instance being notified
+            if (hubVersion == null || hubVersion.getVersionId() != versionId || hubVersion.getReferencesRevision() != referencesRevision) {
+                long lastModified = resultSet.getTimestamp("last_modified").getTime();
+                hubVersion = new HubVersion(repository, hub, versionId, revisions.incrementAndGet(), referencesRevision, lastModified);
+            }
+            result.put(getHubKey(repository, hub), hubVersion);
+        });
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Publishes prepared hub versions. Revisions bumped since preparation are kept.
+     * New versions are recorded before readers switch to them, previous ones are released afterwards.
+     *
+     * @param prepared Hub versions returned by {@link #prepare()}.
+     */
+    public synchronized void publish(Map<String, HubVersion> prepared) {
+        Object[] versionIds = prepared.values().stream().map(HubVersion::getVersionId).distinct().toArray();
+        for (Object versionId : versionIds) {
+            jdbcTemplate.update(Queries.PUBLISH_VERSION, node, versionId);
+        }
+        Map<String, HubVersion> result = new HashMap<>(prepared);
+        hubVersions.forEach((hubKey, hubVersion) -> result.computeIfPresent(hubKey, (k, p) ->
+                p.getVersionId() == hubVersion.getVersionId() && p.getRevision() < hubVersion.getRevision() ? hubVersion : p));
+        hubVersions = Collections.unmodifiableMap(result);
+        log.info("Hub versions published: {}", result.values());
+        jdbcTemplate.update(Queries.UNPUBLISH_OTHER_VERSIONS, preparedStatement -> {
+            preparedStatement.setString(1, node);
+            preparedStatement.setArray(2, preparedStatement.getConnection().createArrayOf("bigint", versionIds));
+        });
+    }
+
+    /**
+     * Renews records of versions published by this instance, so that they don't expire while it's running.
+     */
+    public void heartbeat() {
+        jdbcTemplate.update(Queries.HEARTBEAT_PUBLISHED_VERSIONS, node);
+    }
+
+    /**
+     * Releases versions published by this instance on shutdown.
+     */
+    @PreDestroy
+    public void unpublish() {
+        try {
+            jdbcTemplate.update(Queries.UNPUBLISH_VERSIONS, node);
+        } catch (Exception e) {
+            log.warn("Published versions not released, these expire on their own: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the task seeing given hub versions instead of published ones, e.g. to fill caches for prepared versions.
+     *
+     * @param prepared Hub versions returned by {@link #prepare()}.
+     * @param task     Task to run in the current thread.
+     */
+    public void runWith(Map<String, HubVersion> prepared, Runnable task) {
+        preparedHubVersions.set(prepared);
+        try {
+            task.run();
+        } finally {
+            preparedHubVersions.remove();
+        }
+    }
+
+    /**
+     * Makes readers of the hub skip data cached so far, e.g. when references of the current version change.
+     * Within a transaction this happens after commit.
+     *
+     * @param hub Hub.
+     */
+    public void invalidate(TfHub hub) {
+        invalidate(hub.getRepository(), hub.getName());
+    }
+
+    /**
+     * Makes readers of the hub skip data cached so far. Within a transaction this happens after commit.
+     *
+     * @param repository Repository name.
+     * @param hub        Hub name.
+     */
+    public void invalidate(String repository, String hub) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    doInvalidate(repository, hub);
+                }
+            });
+        } else {
+            doInvalidate(repository, hub);
+        }
+    }
+
+    protected synchronized void doInvalidate(String repository, String hub) {
+        String hubKey = getHubKey(repository, hub);
+        HubVersion hubVersion = hubVersions.get(hubKey);
+        if (hubVersion == null) {
+            return;
+        }
+        Map<String, Object> state = jdbcTemplate.queryForMap(Queries.HUB_VERSION_STATE, hubVersion.getVersionId());
+        Map<String, HubVersion> result = new HashMap<>(hubVersions);
+        result.put(hubKey, new HubVersion(hubVersion.getRepository(), hubVersion.getHub(), hubVersion.getVersionId(), revisions.incrementAndGet(),
+                ((Number) state.get("references_revision")).longValue(), ((Timestamp) state.get("last_modified")).getTime()));
+        hubVersions = Collections.unmodifiableMap(result);
+    }
+
+    protected String getHubKey(String repository, String hub) {
+        return repository + ":" + hub;
+    }
+
+    @Autowired
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Current version of a hub. Revision changes whenever cached data of the hub must not be reused.
+     * Unlike the revision, which is local to this instance, references revision and last modification time are stored
+     * with the version, so that all instances agree on them, also after restarts (see {@link #getTag()}).
+     */
+    @Value
+    public static class HubVersion {
+
+        String repository;
+        String hub;
+        long versionId;
+        long revision;
+        long referencesRevision;
+        long lastModified;
+
+        /**
+         * Gets token identifying the data of the hub as seen by readers, e.g. for HTTP validators.
+         *
+         * @return Version tag.
+         */
+        public String getTag() {
+            return versionId + "." + referencesRevision;
+        }
+
+    }
+
+}
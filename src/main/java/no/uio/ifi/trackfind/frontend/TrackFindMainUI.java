@@ -29,6 +29,7 @@ import com.vaadin.ui.themes.ValoTheme;
 import com.vaadin.util.FileTypeResolver;
 import lombok.extern.slf4j.Slf4j;
 import no.uio.ifi.trackfind.backend.data.TreeNode;
+import no.uio.ifi.trackfind.backend.pojo.SearchPage;
 import no.uio.ifi.trackfind.backend.pojo.SearchResult;
 import no.uio.ifi.trackfind.backend.pojo.TfHub;
 import no.uio.ifi.trackfind.backend.pojo.TfObjectType;
@@ -110,6 +111,7 @@ public class TrackFindMainUI extends AbstractUI {
     private List<TreeNode> expandedItems = new CopyOnWriteArrayList<>();
     private Button exportGSuiteButton = new Button("Export as GSuite file");
     private Button exportJSONButton = new Button("Export as JSON file");
+    private Button nextPageButton = new Button("Next page ➚");
     private CheckBoxGroup<String> categoriesChecklist = new CheckBoxGroup<>();
     private TextArea queryTextArea;
     private TextField limitTextField;
@@ -117,6 +119,9 @@ public class TrackFindMainUI extends AbstractUI {
     private Tree<ResultTreeItemWrapper> resultsTree = new Tree<>();
     private Grid<SearchResult> resultsTable = new Grid<>(SearchResult.class);
     private Collection<SearchResult> results = new ArrayList<>();
+    private String currentQuery;
+    private String nextCursor;
+    private long pageOffset;
     private String jsonResult;
     private FileDownloader gSuiteFileDownloader;
     private FileDownloader jsonFileDownloader;
@@ -191,8 +196,9 @@ public class TrackFindMainUI extends AbstractUI {
                                 getCurrentHub().getName(),
                                 query.replaceAll("'term_label'->", "'term_label' ? "),
                                 List.of(category),
-                                1
-                        ).getValue();
+                                1,
+                                null
+                        ).getResults();
                         SearchResult searchResult = searchResults.iterator().next();
                         String termIDPath = StringUtils.substringBeforeLast(treeNode.getPath().replaceAll("term_label", "term_id"), separator);
                         String termID = Dynamic.from(searchResult.getContent()).get(termIDPath, separator).asString();
@@ -405,6 +411,13 @@ public class TrackFindMainUI extends AbstractUI {
         jsonFileDownloader = new FileDownloader(new ExternalResource(""));
         jsonFileDownloader.extend(exportJSONButton);
 
+        nextPageButton.setEnabled(false);
+        nextPageButton.setWidth(100, Unit.PERCENTAGE);
+        nextPageButton.addClickListener((Button.ClickListener) clickEvent -> {
+            pageOffset += results.size();
+            executeQuery(currentQuery, nextCursor);
+        });
+
         TabSheet resultsTabs = new TabSheet();
         tabSheet.setSizeFull();
         resultsTabs.addTab(resultsTable, "Table view");
@@ -429,7 +442,7 @@ public class TrackFindMainUI extends AbstractUI {
         resultsPanel = new Panel("3. Results", resultsTabs);
         resultsPanel.getContent().setSizeFull();
         resultsPanel.setSizeFull();
-        VerticalLayout resultsLayout = new VerticalLayout(resultsPanel, exportGSuiteButton, exportJSONButton);
+        VerticalLayout resultsLayout = new VerticalLayout(resultsPanel, nextPageButton, exportGSuiteButton, exportJSONButton);
         resultsLayout.setSizeFull();
         resultsLayout.setExpandRatio(resultsPanel, 1f);
         return resultsLayout;
@@ -517,17 +530,27 @@ public class TrackFindMainUI extends AbstractUI {
     }
 
     private void executeQuery(String query) {
+        pageOffset = 0;
+        executeQuery(query, null);
+    }
+
+    private void executeQuery(String query, String cursor) {
         TfHub hub = getCurrentHub();
         String limit = limitTextField.getValue();
         limit = StringUtils.isEmpty(limit) ? "0" : limit;
-        int count = 0;
+        String count = "0";
+        currentQuery = query;
+        nextCursor = null;
         try {
-            results = searchService.search(hub.getRepository(), hub.getName(), query, categoriesChecklist.getSelectedItems(), Long.parseLong(limit)).getValue();
-            count = searchService.count(hub.getRepository(), hub.getName(), query, categoriesChecklist.getSelectedItems());
-        } catch (SQLException e) {
+            SearchPage<SearchResult> page = searchService.searchWithTotal(hub.getRepository(), hub.getName(), query, categoriesChecklist.getSelectedItems(), Long.parseLong(limit), cursor);
+            results = page.getResults();
+            nextCursor = page.getNextCursor();
+            count = (page.isEstimated() ? "~" : "") + (pageOffset + page.getTotal());
+        } catch (SQLException | IllegalArgumentException e) {
             results = Collections.emptyList();
             log.error(e.getMessage(), e);
         }
+        nextPageButton.setEnabled(nextCursor != null);
         if (results.isEmpty()) {
             resultsTable.setItems(Collections.emptyList());
             resultsTree.setItems(Collections.emptyList());
@@ -539,7 +562,7 @@ public class TrackFindMainUI extends AbstractUI {
             Notification.show("Nothing found for such request");
             return;
         }
-        resultsPanel.setCaption(String.format("3. Results: %s out of %s", results.size(), count));
+        resultsPanel.setCaption(String.format("3. Results: %s-%s out of %s", pageOffset + 1, pageOffset + results.size(), count));
         resultsTable.setItems(results);
         resultsTree.setDataProvider(new TreeDataProvider<>(getResultsTreeData()));
         resultsTree.getDataProvider().refreshAll();
@@ -3,6 +3,7 @@ package no.uio.ifi.trackfind.frontend.providers;
 import com.vaadin.data.provider.AbstractBackEndHierarchicalDataProvider;
 import com.vaadin.data.provider.HierarchicalQuery;
 import com.vaadin.server.SerializablePredicate;
+import no.uio.ifi.trackfind.backend.data.MetamodelSnapshot;
 import no.uio.ifi.trackfind.backend.data.TreeNode;
 import no.uio.ifi.trackfind.backend.pojo.TfHub;
 import no.uio.ifi.trackfind.backend.services.impl.MetamodelService;
@@ -39,12 +40,11 @@ public class TrackFindDataProvider extends AbstractBackEndHierarchicalDataProvid
         TfHub hub = treeFilter.getHub();
         String repository = hub.getRepository();
         String hubName = hub.getName();
-        Map<String, Map<String, Object>> metamodelTree;
-        metamodelTree = metamodelService.getMetamodelTree(repository, hubName, treeFilter.getAttributesFilter(), treeFilter.getValuesFilter());
         Map<String, Collection<SchemaService.Attribute>> schemaAttributes = schemaService.getAttributes();
         Optional<TreeNode> parentOptional = query.getParentOptional();
         if (parentOptional.isEmpty()) {
-            return metamodelTree.keySet().stream().map(c -> {
+            MetamodelSnapshot metamodelSnapshot = metamodelService.getMetamodelSnapshot(repository, hubName).filter(treeFilter.getAttributesFilter(), treeFilter.getValuesFilter());
+            return metamodelSnapshot.getCategories().stream().map(c -> {
                 TreeNode treeNode = new TreeNode();
                 treeNode.setTreeFilter(treeFilter);
                 treeNode.setCategory(c);
@@ -52,7 +52,7 @@ public class TrackFindDataProvider extends AbstractBackEndHierarchicalDataProvid
                 treeNode.setParent(null);
                 treeNode.setSeparator(separator);
                 treeNode.setLevel(0);
-                treeNode.setChildren(metamodelTree.get(c).keySet());
+                treeNode.setChildren(metamodelSnapshot.getChildAttributes(c, null));
                 treeNode.setAttribute(true);
                 treeNode.setStandard(schemaAttributes.containsKey(c));
                 treeNode.setArray(false);
@@ -65,7 +65,7 @@ public class TrackFindDataProvider extends AbstractBackEndHierarchicalDataProvid
                 return Stream.empty();
             }
             String category = parent.getCategory();
-            Collection<String> attributes = metamodelService.getAttributesFlat(repository, hubName, category, null);
+            MetamodelSnapshot metamodelSnapshot = metamodelService.getMetamodelSnapshot(repository, hubName);
             Collection<String> arrayOfObjectsAttributes = metamodelService.getArrayOfObjectsAttributes(repository, hubName, category);
             Map<String, String> attributeTypes = metamodelService.getAttributeTypes(repository, hubName, category);
             Collection<String> children = parent.getChildren();
@@ -80,7 +80,7 @@ public class TrackFindDataProvider extends AbstractBackEndHierarchicalDataProvid
                 treeNode.setSeparator(separator);
                 treeNode.setLevel(parent.getLevel() + 1);
                 String path = treeNode.getPath().replace(prefix, "");
-                treeNode.setAttribute(attributes.parallelStream().anyMatch(a -> a.startsWith(path)));
+                treeNode.setAttribute(metamodelSnapshot.containsPath(category, path));
                 treeNode.setArray(arrayOfObjectsAttributes.contains(path));
                 treeNode.setType(attributeTypes.get(path));
                 String parentPath = parent.getPath().replace(prefix, "");
@@ -96,13 +96,13 @@ public class TrackFindDataProvider extends AbstractBackEndHierarchicalDataProvid
                         }
                         treeNode.setStandard(standardAttributes.parallelStream().map(a -> a.getPath().replace("'", "")).anyMatch(a -> a.startsWith(path)));
                     }
-                    if (attributes.contains(path)) {
+                    if (metamodelSnapshot.containsAttribute(category, path)) {
                         treeNode.setChildren(metamodelService.getValues(repository, hubName, category, path, treeFilter.getAttributesFilter(), treeFilter.getValuesFilter(), null));
                     } else {
-                        Collection<String> subAttributes = metamodelService.getAttributes(repository, hubName, category, path);
-                        treeNode.setChildren(subAttributes);
+                        treeNode.setChildren(metamodelSnapshot.getChildAttributes(category, path));
                     }
                 } else {
+                    treeNode.setCount(metamodelService.getValueCounts(repository, hubName, category, parentPath).get(c));
                     if (parent.isStandard()) {
                         Optional<SchemaService.Attribute> standardAttribute = standardAttributes.parallelStream().filter(a -> {
                             String substitutedPath = a.getPath().replace("'", "");
@@ -81,6 +81,11 @@ ALTER TABLE tf_versions
 ALTER TABLE tf_versions
     ADD CONSTRAINT check_based_on_version CHECK ( check_based_on_version(hub_id, based_on) );
 
+-- Changes of references of the version: HTTP validators are derived from these, so they must survive restarts.
+ALTER TABLE tf_versions
+    ADD COLUMN IF NOT EXISTS references_revision BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS references_updated_at TIMESTAMP;
+
 CREATE TABLE IF NOT EXISTS tf_object_types
 (
     id         BIGSERIAL PRIMARY KEY,
@@ -148,13 +153,46 @@ SELECT *
 FROM tf_versions
 WHERE current = TRUE;
 
-CREATE MATERIALIZED VIEW IF NOT EXISTS tf_current_objects AS
-SELECT o.*
-FROM tf_current_versions lv,
-     tf_object_types ot,
-     tf_objects o
-WHERE lv.id = ot.version_id
-  AND ot.id = o.object_type_id;
+-- Derived data used to be kept in materialized views, refreshed globally on every reload.
+-- Now these are tables, maintained per version: see tf_materialized_versions.
+CREATE OR REPLACE FUNCTION tf_drop_materialized_view(view_name VARCHAR)
+    RETURNS VOID
+    LANGUAGE plpgsql AS
+'
+BEGIN
+    IF EXISTS(SELECT 1 FROM pg_matviews WHERE matviewname = view_name) THEN
+        EXECUTE format(''DROP MATERIALIZED VIEW %I CASCADE'', view_name);
+    END IF;
+END;
+';
+
+SELECT tf_drop_materialized_view('tf_attributes');
+SELECT tf_drop_materialized_view('tf_array_of_objects');
+SELECT tf_drop_materialized_view('tf_object_values');
+SELECT tf_drop_materialized_view('tf_metamodel');
+SELECT tf_drop_materialized_view('tf_current_objects');
+
+CREATE TABLE IF NOT EXISTS tf_materialized_versions
+(
+    version_id BIGINT PRIMARY KEY REFERENCES tf_versions (id)
+);
+
+-- Versions served by each instance, so that rows of versions which are no longer current are kept while some instance
+-- still reads them. Instances refresh heartbeat_at periodically: records of instances gone for good expire.
+CREATE TABLE IF NOT EXISTS tf_published_versions
+(
+    node         VARCHAR   NOT NULL,
+    version_id   BIGINT    NOT NULL REFERENCES tf_versions (id),
+    heartbeat_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (node, version_id)
+);
+
+CREATE TABLE IF NOT EXISTS tf_current_objects
+(
+    id             BIGINT NOT NULL,
+    object_type_id BIGINT NOT NULL,
+    content        JSONB  NOT NULL
+);
 
 CREATE INDEX IF NOT EXISTS tf_current_objects_id_index
     ON tf_current_objects (id);
@@ -166,114 +204,59 @@ CREATE INDEX IF NOT EXISTS tf_current_objects_content_index
     ON tf_current_objects
         USING gin (content);
 
-CREATE MATERIALIZED VIEW IF NOT EXISTS tf_metamodel AS
-WITH RECURSIVE collect_metadata AS (SELECT tf_current_objects.object_type_id,
-                                           first_level.key,
-                                           first_level.value,
-                                           jsonb_typeof(first_level.value) AS type
-                                    FROM tf_current_objects,
-                                         jsonb_each(tf_current_objects.content) first_level
-
-                                    UNION ALL
-
-                                    (WITH prev_level AS (
-                                        SELECT *
-                                        FROM collect_metadata
-                                    )
-                                     SELECT prev_level.object_type_id,
-                                            concat(prev_level.key, '->', current_level.key),
-                                            current_level.value,
-                                            jsonb_typeof(current_level.value) AS type
-                                     FROM prev_level,
-                                          jsonb_each(prev_level.value) AS current_level
-                                     WHERE prev_level.type = 'object'
-
-                                     UNION ALL
-
-                                     SELECT prev_level.object_type_id,
-                                            concat(prev_level.key, '->', current_level.key),
-                                            current_level.value,
-                                            jsonb_typeof(current_level.value) AS type
-                                     FROM prev_level,
-                                          jsonb_array_elements(prev_level.value) AS entry,
-                                          jsonb_each(entry) AS current_level
-                                     WHERE prev_level.type = 'array'
-                                       AND jsonb_typeof(entry) = 'object'
-
-                                     UNION ALL
-
-                                     SELECT prev_level.object_type_id,
-                                            prev_level.key,
-                                            entry,
-                                            jsonb_typeof(entry) AS type
-                                     FROM prev_level,
-                                          jsonb_array_elements(prev_level.value) AS entry
-                                     WHERE prev_level.type = 'array'
-                                       AND jsonb_typeof(entry) <> 'object'))
-SELECT DISTINCT object_type_id,
-                key                                                 AS attribute,
-                array_to_json(ARRAY [collect_metadata.value]) ->> 0 AS value,
-                type
-FROM collect_metadata
-WHERE collect_metadata.type NOT IN ('object', 'array')
-WITH DATA;
-
-CREATE MATERIALIZED VIEW IF NOT EXISTS tf_attributes AS
-SELECT DISTINCT object_type_id, attribute
-FROM tf_metamodel;
+CREATE TABLE IF NOT EXISTS tf_object_values
+(
+    object_id      BIGINT  NOT NULL,
+    object_type_id BIGINT  NOT NULL,
+    attribute      VARCHAR NOT NULL,
+    value          VARCHAR,
+    type           VARCHAR NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS tf_object_values_object_id_index
+    ON tf_object_values (object_id);
+
+CREATE INDEX IF NOT EXISTS tf_object_values_object_type_id_index
+    ON tf_object_values (object_type_id);
+
+-- trigram indices serve substring filters of the metamodel restricted to search results (lower(...) LIKE '%...%')
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX IF NOT EXISTS tf_object_values_attribute_trgm_index
+    ON tf_object_values USING GIN (lower(attribute) gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS tf_object_values_value_trgm_index
+    ON tf_object_values USING GIN (lower(value) gin_trgm_ops);
+
+CREATE TABLE IF NOT EXISTS tf_metamodel
+(
+    object_type_id BIGINT  NOT NULL,
+    attribute      VARCHAR NOT NULL,
+    value          VARCHAR,
+    type           VARCHAR NOT NULL,
+    objects_count  BIGINT  NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS tf_metamodel_object_type_id_index
+    ON tf_metamodel (object_type_id);
+
+CREATE TABLE IF NOT EXISTS tf_attributes
+(
+    object_type_id BIGINT  NOT NULL,
+    attribute      VARCHAR NOT NULL,
+    values_count   BIGINT  NOT NULL,
+    objects_count  BIGINT  NOT NULL
+);
 
 CREATE INDEX IF NOT EXISTS tf_attributes_object_type_id_attribute_index
     ON tf_attributes (object_type_id, attribute);
 
-CREATE MATERIALIZED VIEW IF NOT EXISTS tf_array_of_objects AS
-WITH RECURSIVE collect_metadata AS (SELECT tf_current_objects.object_type_id,
-                                           first_level.key,
-                                           NULL                            AS prev_key,
-                                           first_level.value,
-                                           jsonb_typeof(first_level.value) AS type
-                                    FROM tf_current_objects,
-                                         jsonb_each(tf_current_objects.content) first_level
-
-                                    UNION ALL
-
-                                    (WITH prev_level AS (
-                                        SELECT *
-                                        FROM collect_metadata
-                                    )
-                                     SELECT prev_level.object_type_id,
-                                            concat(prev_level.key, '->', current_level.key),
-                                            NULL                              AS prev_key,
-                                            current_level.value,
-                                            jsonb_typeof(current_level.value) AS type
-                                     FROM prev_level,
-                                          jsonb_each(prev_level.value) AS current_level
-                                     WHERE prev_level.type = 'object'
-
-                                     UNION ALL
-
-                                     SELECT prev_level.object_type_id,
-                                            concat(prev_level.key, '->', current_level.key),
-                                            prev_level.key                    AS prev_key,
-                                            current_level.value,
-                                            jsonb_typeof(current_level.value) AS type
-                                     FROM prev_level,
-                                          jsonb_array_elements(prev_level.value) AS entry,
-                                          jsonb_each(entry) AS current_level
-                                     WHERE prev_level.type = 'array'
-                                       AND jsonb_typeof(entry) = 'object'
-
-                                     UNION ALL
-
-                                     SELECT prev_level.object_type_id,
-                                            prev_level.key,
-                                            NULL                AS prev_key,
-                                            entry,
-                                            jsonb_typeof(entry) AS type
-                                     FROM prev_level,
-                                          jsonb_array_elements(prev_level.value) AS entry
-                                     WHERE prev_level.type = 'array'
-                                       AND jsonb_typeof(entry) <> 'object'))
-SELECT DISTINCT object_type_id, prev_key AS attribute
-FROM collect_metadata
-WHERE prev_key IS NOT NULL
-WITH DATA;
+CREATE TABLE IF NOT EXISTS tf_array_of_objects
+(
+    object_type_id BIGINT  NOT NULL,
+    attribute      VARCHAR NOT NULL
+);
+
+-- attributes are extracted batch by batch while saving objects, each of them is stored once per object type
+CREATE UNIQUE INDEX IF NOT EXISTS tf_array_of_objects_object_type_id_attribute_index
+    ON tf_array_of_objects (object_type_id, attribute);
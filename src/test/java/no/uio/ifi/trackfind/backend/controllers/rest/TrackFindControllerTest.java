@@ -0,0 +1,141 @@
+package no.uio.ifi.trackfind.backend.controllers.rest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.RawValue;
+import no.uio.ifi.trackfind.backend.pojo.RawSearchResult;
+import no.uio.ifi.trackfind.backend.pojo.SearchPage;
+import no.uio.ifi.trackfind.backend.services.impl.SearchService;
+import no.uio.ifi.trackfind.backend.services.impl.VersionRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringRunner.class)
+public class TrackFindControllerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private final TrackFindController trackFindController = new TrackFindController();
+
+    @Mock
+    private SearchService searchService;
+
+    @Mock
+    private VersionRegistry versionRegistry;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        trackFindController.setSearchService(searchService);
+        trackFindController.setVersionRegistry(versionRegistry);
+        trackFindController.setObjectMapper(objectMapper);
+        trackFindController.setMaxAge(60);
+        when(searchService.isStreamAvailable()).thenReturn(true);
+        when(versionRegistry.getHubVersion("repository", "hub")).thenReturn(new VersionRegistry.HubVersion("repository", "hub", 1, 1, 0, 0));
+        doAnswer(invocation -> {
+            Consumer<RawSearchResult> consumer = invocation.getArgument(5);
+            for (int i = 0; i < 3; i++) {
+                RawSearchResult searchResult = new RawSearchResult();
+                searchResult.getContent().put("tracks", new RawValue("{\"id\": " + i + ", \"label\": \"track " + i + "\"}"));
+                searchResult.getContent().put("samples", new RawValue("{\"id\": " + i + "}"));
+                consumer.accept(searchResult);
+            }
+            return null;
+        }).when(searchService).stream(eq("repository"), eq("hub"), eq("query"), anyCollection(), anyLong(), any());
+    }
+
+    @Test
+    public void searchNDJSONTest() throws Exception {
+        ServletWebRequest webRequest = new ServletWebRequest(new MockHttpServletRequest("GET", "/api/v1/search/repository/hub"), new MockHttpServletResponse());
+        ResponseEntity<StreamingResponseBody> response = trackFindController.searchNDJSON("repository", "hub", "query", "", 0, webRequest);
+        assertThat(response.getBody()).isNotNull();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        response.getBody().writeTo(outputStream);
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(3);
+        for (int i = 0; i < lines.length; i++) {
+            JsonNode record = objectMapper.readTree(lines[i]);
+            assertThat(record.fieldNames()).toIterable().containsExactlyInAnyOrder("tracks", "samples");
+            assertThat(record.path("tracks").path("id").asInt()).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void searchNDJSONFailsWithoutErrorRecordTest() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<RawSearchResult> consumer = invocation.getArgument(5);
+            RawSearchResult searchResult = new RawSearchResult();
+            searchResult.getContent().put("tracks", new RawValue("{\"id\": 0}"));
+            consumer.accept(searchResult);
+            throw new SQLException("Connection reset");
+        }).when(searchService).stream(eq("repository"), eq("hub"), eq("query"), anyCollection(), anyLong(), any());
+        ResponseEntity<StreamingResponseBody> response = trackFindController.searchNDJSON("repository", "hub", "query", "", 0, getWebRequest(new MockHttpServletResponse()));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertThatThrownBy(() -> response.getBody().writeTo(outputStream)).isInstanceOf(IOException.class).hasCauseInstanceOf(SQLException.class);
+        assertThat(outputStream.toString(StandardCharsets.UTF_8).split("\n")).hasSize(1);
+    }
+
+    @Test
+    public void searchNDJSONRejectedWhenStreamsExhaustedTest() {
+        when(searchService.isStreamAvailable()).thenReturn(false);
+        ResponseEntity<StreamingResponseBody> response = trackFindController.searchNDJSON("repository", "hub", "query", "", 0, getWebRequest(new MockHttpServletResponse()));
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(response.getBody()).isNull();
+    }
+
+    @Test
+    public void cacheHeadersOnSuccessOnlyTest() throws Exception {
+        SearchPage<RawSearchResult> page = new SearchPage<>(null, Collections.emptyList(), null, null, false);
+        when(searchService.searchRaw(eq("repository"), eq("hub"), eq("query"), anyCollection(), anyLong(), any())).thenReturn(page);
+        MockHttpServletResponse okResponse = new MockHttpServletResponse();
+        ResponseEntity<Collection<RawSearchResult>> ok = trackFindController.searchJSON("repository", "hub", "query", "", 0, null, getWebRequest(okResponse));
+        assertThat(ok.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(ok.getHeaders().getCacheControl()).isEqualTo("max-age=60, must-revalidate, public");
+        assertThat(ok.getHeaders().getVary()).containsExactly(HttpHeaders.ACCEPT);
+
+        MockHttpServletResponse notModifiedResponse = new MockHttpServletResponse();
+        MockHttpServletRequest conditionalRequest = new MockHttpServletRequest("GET", "/api/v1/search/repository/hub");
+        conditionalRequest.addHeader(HttpHeaders.IF_NONE_MATCH, okResponse.getHeader(HttpHeaders.ETAG));
+        assertThat(trackFindController.searchJSON("repository", "hub", "query", "", 0, null, new ServletWebRequest(conditionalRequest, notModifiedResponse))).isNull();
+        assertThat(notModifiedResponse.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED.value());
+        assertThat(notModifiedResponse.getHeader(HttpHeaders.CACHE_CONTROL)).isEqualTo("max-age=60, must-revalidate, public");
+
+        when(searchService.searchRaw(eq("repository"), eq("hub"), eq("query"), anyCollection(), anyLong(), any())).thenThrow(new SQLException("Syntax error"));
+        MockHttpServletResponse badRequestResponse = new MockHttpServletResponse();
+        ResponseEntity<Collection<RawSearchResult>> badRequest = trackFindController.searchJSON("repository", "hub", "query", "", 0, null, getWebRequest(badRequestResponse));
+        assertThat(badRequest.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(badRequest.getHeaders().getCacheControl()).isNull();
+        assertThat(badRequestResponse.getHeader(HttpHeaders.CACHE_CONTROL)).isNull();
+        assertThat(badRequestResponse.getHeader(HttpHeaders.VARY)).isNull();
+    }
+
+    private ServletWebRequest getWebRequest(MockHttpServletResponse response) {
+        return new ServletWebRequest(new MockHttpServletRequest("GET", "/api/v1/search/repository/hub"), response);
+    }
+
+}
@@ -0,0 +1,123 @@
+package no.uio.ifi.trackfind.backend.data;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+public class MetamodelSnapshotTest {
+
+    private final MetamodelSnapshot metamodelSnapshot = new MetamodelSnapshot.Builder("->")
+            .add("tracks", "type", "ChIP-seq")
+            .add("tracks", "type", "RNA-seq")
+            .add("tracks", "type", null)
+            .add("tracks", "label", "RNA-seq of liver")
+            .add("samples", "species", "Homo sapiens")
+            .add("samples", "species", "Mus musculus")
+            .add("samples", "species", "Homo sapiens")
+            .add("samples", "biomaterial->type", "cell line")
+            .add("samples", "biomaterial->term->label", "HeLa")
+            .add("samples", "biomaterial->term->id", "EFO:0001185")
+            .build();
+
+    @Test
+    public void buildTest() {
+        assertThat(metamodelSnapshot.getCategories()).containsExactlyInAnyOrder("tracks", "samples");
+        assertThat(metamodelSnapshot.getAttributes("tracks")).containsExactly("label", "type");
+        assertThat(metamodelSnapshot.getAttributes("samples")).containsExactly("biomaterial->term->id", "biomaterial->term->label", "biomaterial->type", "species");
+        assertThat(metamodelSnapshot.getValues("tracks", "type")).containsExactlyInAnyOrder("ChIP-seq", "RNA-seq", null);
+        assertThat(metamodelSnapshot.getValues("samples", "species")).containsExactlyInAnyOrder("Homo sapiens", "Mus musculus");
+        assertThat(metamodelSnapshot.getValues("samples", "type")).isEmpty();
+        assertThat(metamodelSnapshot.getValues("unknown", "type")).isEmpty();
+    }
+
+    @Test
+    public void filterTest() {
+        MetamodelSnapshot byAttribute = metamodelSnapshot.filter("SPEC", null);
+        assertThat(byAttribute.getCategories()).containsExactly("samples");
+        assertThat(byAttribute.getValues("samples", "species")).containsExactlyInAnyOrder("Homo sapiens", "Mus musculus");
+
+        MetamodelSnapshot byValue = metamodelSnapshot.filter(null, "rna");
+        assertThat(byValue.getCategories()).containsExactly("tracks");
+        assertThat(byValue.getAttributes("tracks")).containsExactly("label", "type");
+        assertThat(byValue.getValues("tracks", "type")).containsExactly("RNA-seq");
+
+        assertThat(metamodelSnapshot.filter("type", "liver").getCategories()).isEmpty();
+        assertThat(byValue.toMultimaps().get("tracks").get("label")).containsExactly("RNA-seq of liver");
+    }
+
+    @Test
+    public void filterBySubstringsOfAnyLengthTest() {
+        MetamodelSnapshot snapshot = new MetamodelSnapshot.Builder("->")
+                .add("samples", "id", "A1")
+                .add("samples", "id", "b")
+                .add("samples", "name", "Straße")
+                .add("samples", "name", "Bastard")
+                .build();
+        assertThat(snapshot.filter(null, "a").getValues("samples", "id")).containsExactly("A1");
+        assertThat(snapshot.filter(null, "a").getValues("samples", "name")).containsExactlyInAnyOrder("Straße", "Bastard");
+        assertThat(snapshot.filter(null, "B").getValues("samples", "id")).containsExactly("b");
+        assertThat(snapshot.filter(null, "sT").getValues("samples", "name")).containsExactlyInAnyOrder("Straße", "Bastard");
+        assertThat(snapshot.filter(null, "STRASSE").getCategories()).isEmpty();
+        assertThat(snapshot.filter(null, "TRAß").getValues("samples", "name")).containsExactly("Straße");
+        assertThat(snapshot.filter(null, "asta d").getCategories()).isEmpty();
+        assertThat(snapshot.filter("NAM", "tard").getAttributes("samples")).containsExactly("name");
+        assertThat(snapshot.filter("me", "a1").getCategories()).isEmpty();
+    }
+
+    @Test
+    public void estimateSizeTest() {
+        MetamodelSnapshot snapshot = new MetamodelSnapshot.Builder("->").add("samples", "a", "x").build();
+        // the view keeps everything, but the dictionary of two one-char strings is not counted for it
+        MetamodelSnapshot view = snapshot.filter(null, "x");
+        assertThat(snapshot.estimateSize() - view.estimateSize()).isGreaterThanOrEqualTo(2 * (48 + 2));
+    }
+
+    @Test
+    public void getValuesTest() {
+        assertThat(metamodelSnapshot.getValues("samples", "species", "spec", "homo")).containsExactly("Homo sapiens");
+        assertThat(metamodelSnapshot.getValues("samples", "species", "type", null)).isEmpty();
+    }
+
+    @Test
+    public void attributePathsTest() {
+        assertThat(metamodelSnapshot.getChildAttributes("samples", null)).containsExactly("biomaterial", "species");
+        assertThat(metamodelSnapshot.getChildAttributes("samples", "biomaterial")).containsExactly("term", "type");
+        assertThat(metamodelSnapshot.getChildAttributes("samples", "biomaterial->term->id")).isEmpty();
+        assertThat(metamodelSnapshot.getChildAttributes("samples", "bio")).isEmpty();
+        assertThat(metamodelSnapshot.getAttributesFlat("samples", "biomaterial")).containsExactly("term->id", "term->label", "type");
+        assertThat(metamodelSnapshot.containsPath("samples", "biomaterial->term")).isTrue();
+        assertThat(metamodelSnapshot.containsPath("samples", "biomaterial->ter")).isFalse();
+        assertThat(metamodelSnapshot.containsAttribute("samples", "biomaterial->term")).isFalse();
+        assertThat(metamodelSnapshot.containsAttribute("samples", "biomaterial->term->id")).isTrue();
+        assertThat(metamodelSnapshot.filter(null, "hela").getAttributesFlat("samples", null)).containsExactly("biomaterial->term->label");
+    }
+
+    @Test
+    public void filteredAttributePathsTest() {
+        MetamodelSnapshot view = metamodelSnapshot.filter("term", null);
+        assertThat(view.getChildAttributes("samples", null)).containsExactly("biomaterial");
+        assertThat(view.getChildAttributes("samples", "biomaterial")).containsExactly("term");
+        assertThat(view.getAttributesFlat("samples", "Biomaterial")).containsExactly("term->id", "term->label");
+        assertThat(view.containsPath("samples", "biomaterial->type")).isFalse();
+        assertThat(view.containsAttribute("samples", "biomaterial->term->id")).isTrue();
+        assertThat(view.filter(null, "efo").getAttributesFlat("samples", null)).containsExactly("biomaterial->term->id");
+        assertThat(metamodelSnapshot.getChildAttributes("samples", "biomaterial")).containsExactly("term", "type");
+    }
+
+    @Test
+    public void attributePathsIgnoreCaseTest() {
+        assertThat(metamodelSnapshot.getChildAttributes("samples", "BioMaterial")).containsExactly("term", "type");
+        assertThat(metamodelSnapshot.getAttributesFlat("samples", "BIOMATERIAL->Term")).containsExactly("id", "label");
+
+        MetamodelSnapshot mixedCase = new MetamodelSnapshot.Builder("->")
+                .add("samples", "Biomaterial->type", "cell line")
+                .add("samples", "biomaterial->term", "HeLa")
+                .build();
+        assertThat(mixedCase.getChildAttributes("samples", "biomaterial")).containsExactly("term", "type");
+        assertThat(mixedCase.getAttributesFlat("samples", "biomaterial")).containsExactly("term", "type");
+    }
+
+}
@@ -0,0 +1,201 @@
+package no.uio.ifi.trackfind.backend.data.providers;
+
+import com.google.gson.Gson;
+import no.uio.ifi.trackfind.backend.data.providers.blueprint.BlueprintDataProvider;
+import no.uio.ifi.trackfind.backend.operations.Operation;
+import no.uio.ifi.trackfind.backend.pojo.TfObject;
+import no.uio.ifi.trackfind.backend.pojo.TfObjectType;
+import no.uio.ifi.trackfind.backend.pojo.TfVersion;
+import no.uio.ifi.trackfind.backend.repositories.ObjectRepository;
+import no.uio.ifi.trackfind.backend.services.impl.MetamodelExtractionService;
+import no.uio.ifi.trackfind.backend.services.impl.SchemaService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManager;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringRunner.class)
+public class AbstractDataProviderTest {
+
+    private static final String DOCUMENT = "{" +
+            "\"doc_info\": {\"local_id\": \"doc\"}," +
+            "\"samples\": [{\"id\": 1}, {\"id\": 2}, {\"id\": 3}, {\"id\": 4}]," +
+            "\"tracks\": [{\"id\": 5}]" +
+            "}";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private MetamodelExtractionService metamodelExtractionService;
+
+    @Mock
+    private SchemaService schemaService;
+
+    @Mock
+    private ObjectRepository objectRepository;
+
+    @Mock
+    private EntityManager entityManager;
+
+    private final ExecutorService fetchingExecutor = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void setUp() {
+        when(objectRepository.saveAll(anyCollection())).then(invocation -> invocation.getArgument(0));
+    }
+
+    @After
+    public void tearDown() {
+        fetchingExecutor.shutdownNow();
+    }
+
+    @Test
+    public void fetchDataFailsWhenSinkFailsTest() throws IOException {
+        AbstractDataProvider dataProvider = getBlueprintDataProvider(DOCUMENT);
+        List<String> accepted = new ArrayList<>();
+        ObjectSink sink = (objectTypeName, content) -> {
+            if (accepted.size() == 2) {
+                throw new IllegalStateException("Sink failed");
+            }
+            accepted.add(objectTypeName);
+        };
+        assertThatThrownBy(() -> dataProvider.fetchData("hub", sink)).isInstanceOf(IllegalStateException.class).hasMessage("Sink failed");
+        assertThat(accepted).containsExactly("doc_info", "samples");
+    }
+
+    @Test
+    public void fetchDataFailsOnTruncatedDocumentTest() throws IOException {
+        AbstractDataProvider dataProvider = getBlueprintDataProvider(DOCUMENT.substring(0, DOCUMENT.indexOf("3}")));
+        List<String> accepted = new ArrayList<>();
+        assertThatThrownBy(() -> dataProvider.fetchData("hub", (objectTypeName, content) -> accepted.add(content))).isInstanceOf(Exception.class);
+        assertThat(accepted).hasSize(3);
+    }
+
+    @Test
+    public void saveFailsWhenFetchingFailsTest() {
+        TestDataProvider dataProvider = new TestDataProvider(10, new IOException("Connection reset"));
+        assertThatThrownBy(() -> dataProvider.save("hub")).isInstanceOf(IOException.class).hasMessage("Connection reset");
+    }
+
+    @Test
+    public void saveReleasesFetchingWhenSavingFailsTest() throws InterruptedException {
+        when(objectRepository.saveAll(anyCollection())).thenThrow(new IllegalStateException("Database is down"));
+        TestDataProvider dataProvider = new TestDataProvider(100, null);
+        assertThatThrownBy(() -> dataProvider.save("hub")).isInstanceOf(IllegalStateException.class).hasMessage("Database is down");
+        assertThat(dataProvider.fetchingFinished.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void saveSkipsDuplicatesWithinCategoryTest() throws Exception {
+        List<String> saved = new ArrayList<>();
+        when(objectRepository.saveAll(anyCollection())).then(invocation -> {
+            Collection<TfObject> batch = invocation.getArgument(0);
+            batch.forEach(o -> saved.add(o.getObjectType().getName() + " " + o.getContent()));
+            return batch;
+        });
+        TestDataProvider dataProvider = new TestDataProvider(Arrays.asList(
+                "tracks", "{\"id\": 1}",
+                "tracks", "{\"id\": 2}",
+                "tracks", "{\"id\": 1}",
+                "samples", "{\"id\": 1}",
+                "tracks", "{\"id\": 2}"
+        ), null);
+        dataProvider.save("hub");
+        assertThat(saved).containsExactly("tracks {\"id\": 1}", "tracks {\"id\": 2}", "samples {\"id\": 1}");
+    }
+
+    private AbstractDataProvider getBlueprintDataProvider(String document) throws IOException {
+        File file = temporaryFolder.newFile();
+        Files.writeString(file.toPath(), document, StandardCharsets.UTF_8);
+        BlueprintDataProvider dataProvider = new BlueprintDataProvider() {
+            @Override
+            public String getFetchURI(String hubName) {
+                return file.toURI().toString();
+            }
+        };
+        dataProvider.setGson(new Gson());
+        return dataProvider;
+    }
+
+    private class TestDataProvider extends AbstractDataProvider {
+
+        private final List<String> objects; // object type names followed by contents
+        private final Exception failure;
+        private final CountDownLatch fetchingFinished = new CountDownLatch(1);
+
+        private TestDataProvider(int objectsCount, Exception failure) {
+            this(IntStream.range(0, objectsCount).boxed().flatMap(i -> Arrays.asList("tracks", "{\"id\": " + i + "}").stream()).collect(Collectors.toList()), failure);
+        }
+
+        private TestDataProvider(List<String> objects, Exception failure) {
+            this.objects = objects;
+            this.failure = failure;
+            this.batchSize = 2;
+            setMetamodelExtractionService(AbstractDataProviderTest.this.metamodelExtractionService);
+            setSchemaService(AbstractDataProviderTest.this.schemaService);
+            setObjectRepository(AbstractDataProviderTest.this.objectRepository);
+            setEntityManager(AbstractDataProviderTest.this.entityManager);
+            setFetchingExecutorService(fetchingExecutor);
+        }
+
+        @Override
+        public String getFetchURI(String hubName) {
+            return null;
+        }
+
+        @Override
+        protected void fetchData(String hubName, ObjectSink sink) throws Exception {
+            try {
+                for (int i = 0; i < objects.size(); i += 2) {
+                    sink.accept(objects.get(i), objects.get(i + 1));
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            } finally {
+                fetchingFinished.countDown();
+            }
+        }
+
+        @Override
+        protected TfVersion createVersion(String hubName, Operation operation, boolean copyReferences) {
+            return new TfVersion();
+        }
+
+        @Override
+        protected TfObjectType createObjectType(TfVersion version, String objectTypeName) {
+            TfObjectType objectType = new TfObjectType();
+            objectType.setName(objectTypeName);
+            objectType.setVersion(version);
+            return objectType;
+        }
+
+    }
+
+}
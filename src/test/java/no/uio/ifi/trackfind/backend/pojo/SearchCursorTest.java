@@ -0,0 +1,29 @@
+package no.uio.ifi.trackfind.backend.pojo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@RunWith(SpringRunner.class)
+public class SearchCursorTest {
+
+    @Test
+    public void encodeDecodeTest() {
+        SearchCursor cursor = new SearchCursor(Arrays.asList("experiments", "samples"), Arrays.asList(42L, 7L));
+        String token = cursor.encode();
+        assertThat(token).doesNotContain("experiments").doesNotContain("=");
+        assertThat(SearchCursor.decode(token)).isEqualTo(cursor);
+    }
+
+    @Test
+    public void decodeMalformedTest() {
+        assertThatThrownBy(() -> SearchCursor.decode("not a cursor")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SearchCursor.decode("")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -0,0 +1,69 @@
+package no.uio.ifi.trackfind.backend.query;
+
+import com.google.gson.JsonParser;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+public class CategoryIndexTest {
+
+    private CategoryIndex categoryIndex;
+
+    @Before
+    public void setUp() {
+        categoryIndex = new CategoryIndex(1);
+        categoryIndex.add(1, JsonParser.parseString("{\"a\": {\"b\": \"x\"}, \"n\": 1.0, \"flag\": true}").getAsJsonObject());
+        categoryIndex.add(2, JsonParser.parseString("{\"a\": {\"b\": [\"x\", \"y\"]}, \"n\": 2}").getAsJsonObject());
+        categoryIndex.add(3, JsonParser.parseString("{\"list\": [{\"c\": \"z\"}, {\"c\": \"y\"}], \"n\": \"1\"}").getAsJsonObject());
+        categoryIndex.add(4, JsonParser.parseString("{\"o\": {\"k\": \"v\"}}").getAsJsonObject());
+        categoryIndex.optimize();
+    }
+
+    @Test
+    public void anyOfTest() {
+        assertThat(evaluate("samples.content->'a'->'b' ? 'x'")).containsExactly(1L, 2L);
+        assertThat(evaluate("samples.content->'a'->'b' ?| array['y', 'z']")).containsExactly(2L);
+        assertThat(evaluate("samples.content->'list'->*->'c' ? 'z'")).containsExactly(3L);
+        assertThat(evaluate("samples.content->'list'->'c' ? 'z'")).isEmpty();
+        assertThat(evaluate("samples.content->'o' ? 'k'")).containsExactly(4L);
+        assertThat(evaluate("samples.content->'o' ? 'v'")).isEmpty();
+    }
+
+    @Test
+    public void equalsTest() {
+        assertThat(evaluate("samples.content->'n' = '1'")).containsExactly(1L);
+        assertThat(evaluate("samples.content->>'n' = '1'")).containsExactly(1L, 3L);
+        assertThat(evaluate("samples.content->'flag' = 'true'")).containsExactly(1L);
+    }
+
+    @Test
+    public void booleanTest() {
+        assertThat(evaluate("samples.content->'a'->'b' ? 'x' AND NOT samples.content->'n' = '2'")).containsExactly(1L);
+        assertThat(evaluate("samples.content->'a'->'b' ? 'y' OR samples.content->'list'->*->'c' ? 'y'")).containsExactly(2L, 3L);
+        assertThat(evaluate("NOT samples.content->'a'->'b' ? 'y'")).containsExactly(1L);
+        assertThat(evaluate("TRUE")).containsExactly(1L, 2L, 3L, 4L);
+    }
+
+    @Test
+    public void notOfMissingAttributeTest() {
+        assertThat(evaluate("NOT samples.content->'a'->'b' ? 'x'")).isEmpty();
+        assertThat(evaluate("NOT samples.content->'flag' = 'false'")).containsExactly(1L);
+        assertThat(evaluate("NOT samples.content->'list'->*->'c' ? 'x'")).containsExactly(3L);
+        assertThat(evaluate("NOT (samples.content->'flag' = 'true' OR samples.content->'n' = '2')")).isEmpty();
+        assertThat(evaluate("NOT (samples.content->'flag' = 'true' AND samples.content->'n' = '2')")).containsExactly(1L, 3L);
+    }
+
+    @Test(expected = QueryParseException.class)
+    public void notScalarTest() {
+        evaluate("samples.content->'n' = 'x'");
+    }
+
+    private long[] evaluate(String query) {
+        return categoryIndex.evaluate(new QueryParser(query).parse()).toArray();
+    }
+
+}
@@ -0,0 +1,68 @@
+package no.uio.ifi.trackfind.backend.query;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@RunWith(SpringRunner.class)
+public class QueryTranslatorTest {
+
+    @Test
+    public void translateStringValueTest() {
+        SearchPredicate predicate = QueryTranslator.translate(new QueryParser("samples.content->'biomaterial_type' ? 'Cell Line'\n").parse());
+        assertThat(predicate.getSql()).isEqualTo("(samples.content @> ?::jsonb) OR (samples.content @> ?::jsonb) OR (samples.content @> ?::jsonb AND (samples.content -> ?::text) ?? ?::text)");
+        assertThat(predicate.getParameters()).containsExactly("{\"biomaterial_type\":\"Cell Line\"}", "{\"biomaterial_type\":[\"Cell Line\"]}", "{\"biomaterial_type\":{}}", "biomaterial_type", "Cell Line");
+    }
+
+    @Test
+    public void translateArrayOfObjectsTest() {
+        SearchPredicate predicate = QueryTranslator.translate(new QueryParser("experiments.content->'targets'->*->'term_label' ?| array['H3K4me3', 'CTCF']").parse());
+        assertThat(predicate.getParameters()).hasSize(14).contains("{\"targets\":[{\"term_label\":\"CTCF\"}]}");
+    }
+
+    @Test
+    public void translateBooleanCombinationTest() {
+        String query = "samples.content->'sex' ? 'female'\nAND NOT tracks.content->'size' = '42'\nOR tracks.content->'genome_assembly'->>'id' = 'hg38'";
+        SearchPredicate predicate = QueryTranslator.translate(new QueryParser(query).parse());
+        assertThat(predicate.getSql()).startsWith("(((samples.content @> ?::jsonb) OR (samples.content @> ?::jsonb) OR (").contains(") AND (((tracks.content -> ?::text) IS NOT NULL) AND NOT (tracks.content @> ?::jsonb))) OR (tracks.content @> ?::jsonb)");
+        assertThat(predicate.getParameters()).contains("{\"size\":42}", "{\"genome_assembly\":{\"id\":\"hg38\"}}");
+    }
+
+    @Test
+    public void translateNotOfMissingAttributeTest() {
+        SearchPredicate predicate = QueryTranslator.translate(new QueryParser("NOT tracks.content->'genome_assembly'->>'id' = 'hg38'").parse());
+        assertThat(predicate.getSql()).isEqualTo("((tracks.content -> ?::text ->> ?::text) IS NOT NULL) AND NOT (tracks.content @> ?::jsonb)");
+        assertThat(predicate.getParameters()).containsExactly("genome_assembly", "id", "{\"genome_assembly\":{\"id\":\"hg38\"}}");
+        SearchPredicate negatedConjunction = QueryTranslator.translate(new QueryParser("NOT (samples.content->'size' = '1' AND NOT tracks.content->'size' = '2')").parse());
+        assertThat(negatedConjunction.getSql()).isEqualTo("(((samples.content -> ?::text) IS NOT NULL) AND NOT (samples.content @> ?::jsonb)) OR (tracks.content @> ?::jsonb)");
+    }
+
+    @Test
+    public void translateObjectKeyTest() {
+        SearchPredicate predicate = QueryTranslator.translate(new QueryParser("experiments.content->'targets'->*->'ids' ? 'ENCODE'").parse());
+        assertThat(predicate.getSql()).endsWith("(experiments.content @> ?::jsonb AND EXISTS (SELECT 1 FROM jsonb_array_elements(CASE jsonb_typeof(experiments.content -> ?::text) WHEN 'array' THEN experiments.content -> ?::text END) AS e1(value) WHERE (e1.value -> ?::text) ?? ?::text))");
+        assertThat(predicate.getParameters()).endsWith("{\"targets\":[{\"ids\":{}}]}", "targets", "targets", "ids", "ENCODE");
+    }
+
+    @Test
+    public void translateEscapedStringTest() {
+        SearchPredicate predicate = QueryTranslator.translate(new QueryParser("(samples.content->'name' ? 'O''Neil')").parse());
+        assertThat(predicate.getParameters()).contains("{\"name\":\"O'Neil\"}");
+    }
+
+    @Test
+    public void translateConstantTest() {
+        assertThat(QueryTranslator.translate(new QueryParser("true").parse()).getSql()).isEqualTo("TRUE");
+    }
+
+    @Test
+    public void unsupportedQueryTest() {
+        assertThatThrownBy(() -> new QueryParser("samples.content->>'name' LIKE '%cell%'").parse()).isInstanceOf(QueryParseException.class);
+        assertThatThrownBy(() -> QueryTranslator.translate(new QueryParser("samples.content->'size' = 'large'").parse())).isInstanceOf(QueryParseException.class);
+        assertThat(SearchPredicate.raw("samples.content ? 'x'").getSql()).isEqualTo("samples.content ?? 'x'");
+    }
+
+}
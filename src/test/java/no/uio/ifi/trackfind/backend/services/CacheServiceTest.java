@@ -0,0 +1,184 @@
+package no.uio.ifi.trackfind.backend.services;
+
+import no.uio.ifi.trackfind.backend.pojo.Queries;
+import no.uio.ifi.trackfind.backend.pojo.RefreshJob;
+import no.uio.ifi.trackfind.backend.services.impl.CacheService;
+import no.uio.ifi.trackfind.backend.services.impl.CacheWarmUpService;
+import no.uio.ifi.trackfind.backend.services.impl.MaterializationService;
+import no.uio.ifi.trackfind.backend.services.impl.SearchIndexService;
+import no.uio.ifi.trackfind.backend.services.impl.VersionRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(SpringRunner.class)
+public class CacheServiceTest {
+
+    @Mock
+    private MaterializationService materializationService;
+
+    @Mock
+    private SearchIndexService searchIndexService;
+
+    @Mock
+    private CacheWarmUpService cacheWarmUpService;
+
+    @Mock
+    private ExecutorService executorService;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private ResultSet resultSet;
+
+    private final List<Runnable> submittedTasks = new ArrayList<>();
+    private final VersionRegistry versionRegistry = new VersionRegistry();
+    private final CacheService cacheService = new CacheService();
+    private boolean locked;
+
+    @Before
+    public void setUp() throws Exception {
+        when(executorService.submit(any(Runnable.class))).then(invocation -> {
+            submittedTasks.add(invocation.getArgument(0));
+            return null;
+        });
+        doAnswer(invocation -> {
+            locked = true;
+            try {
+                invocation.<Callable<?>>getArgument(0).call();
+            } finally {
+                locked = false;
+            }
+            return null;
+        }).when(materializationService).runExclusively(any(Callable.class));
+        doAnswer(invocation -> {
+            invocation.<RowCallbackHandler>getArgument(1).processRow(resultSet);
+            return null;
+        }).when(jdbcTemplate).query(eq(Queries.CURRENT_HUB_VERSIONS), any(RowCallbackHandler.class));
+        when(resultSet.getString("repository")).thenReturn("repository");
+        when(resultSet.getString("hub")).thenReturn("hub");
+        when(resultSet.getTimestamp("last_modified")).thenReturn(new Timestamp(0));
+        versionRegistry.setJdbcTemplate(jdbcTemplate);
+        cacheService.setMaterializationService(materializationService);
+        cacheService.setSearchIndexService(searchIndexService);
+        cacheService.setCacheWarmUpService(cacheWarmUpService);
+        cacheService.setVersionRegistry(versionRegistry);
+        cacheService.setExecutorService(executorService);
+    }
+
+    @Test
+    public void eventsCoalescedWhileQueuedTest() {
+        RefreshJob first = cacheService.scheduleRefresh("A");
+        RefreshJob coalesced = cacheService.scheduleRefresh("B");
+        assertThat(coalesced.getId()).isEqualTo(first.getId());
+        assertThat(coalesced.getEvents()).containsExactly("A", "B");
+        assertThat(submittedTasks).hasSize(1);
+
+        // events arriving while the refresh runs need another one
+        doAnswer(invocation -> cacheService.scheduleRefresh("C")).when(materializationService).synchronize();
+        runSubmittedTasks();
+        assertThat(submittedTasks).hasSize(1);
+        List<RefreshJob> refreshJobs = cacheService.getRefreshJobs();
+        assertThat(refreshJobs).extracting(RefreshJob::getState).containsExactly(RefreshJob.State.QUEUED, RefreshJob.State.SUCCEEDED);
+        assertThat(refreshJobs.get(0).getEvents()).containsExactly("C");
+        assertThat(refreshJobs.get(1).getEvents()).containsExactly("A", "B");
+    }
+
+    @Test
+    public void readersSeePreviousVersionUntilPublishedTest() throws Exception {
+        when(resultSet.getLong("version_id")).thenReturn(1L);
+        cacheService.scheduleRefresh("A");
+        runSubmittedTasks();
+        assertThat(versionRegistry.getHubVersion("repository", "hub").getVersionId()).isEqualTo(1L);
+
+        when(resultSet.getLong("version_id")).thenReturn(2L);
+        List<Long> seenVersionIds = new ArrayList<>();
+        doAnswer(invocation -> seenVersionIds.add(getPublishedVersionId())).when(materializationService).synchronize();
+        doAnswer(invocation -> seenVersionIds.add(getPublishedVersionId())).when(cacheWarmUpService).warmUp(anyMap());
+        doAnswer(invocation -> seenVersionIds.add(getPublishedVersionId())).when(materializationService).cleanUp();
+        cacheService.scheduleRefresh("B");
+        runSubmittedTasks();
+
+        assertThat(seenVersionIds).containsExactly(1L, 1L, 2L);
+        InOrder inOrder = inOrder(materializationService, cacheWarmUpService, searchIndexService);
+        inOrder.verify(materializationService).synchronize();
+        inOrder.verify(cacheWarmUpService).warmUp(anyMap());
+        inOrder.verify(materializationService).cleanUp();
+        inOrder.verify(searchIndexService).rebuild();
+    }
+
+    @Test
+    public void refreshRunsExclusivelyTest() throws Exception {
+        List<Boolean> lockedSteps = new ArrayList<>();
+        doAnswer(invocation -> lockedSteps.add(locked)).when(materializationService).synchronize();
+        doAnswer(invocation -> lockedSteps.add(locked)).when(cacheWarmUpService).warmUp(anyMap());
+        doAnswer(invocation -> lockedSteps.add(locked)).when(materializationService).cleanUp();
+        doAnswer(invocation -> lockedSteps.add(locked)).when(searchIndexService).rebuild();
+        cacheService.scheduleRefresh("A");
+        runSubmittedTasks();
+        assertThat(lockedSteps).containsExactly(true, true, true, true);
+        assertThat(locked).isFalse();
+    }
+
+    @Test
+    public void publishedVersionsRecordedBeforeCleanUpTest() throws Exception {
+        when(resultSet.getLong("version_id")).thenReturn(1L);
+        cacheService.scheduleRefresh("A");
+        runSubmittedTasks();
+
+        InOrder inOrder = inOrder(jdbcTemplate, materializationService);
+        inOrder.verify(jdbcTemplate).update(Queries.PUBLISH_VERSION, versionRegistry.getNode(), 1L);
+        inOrder.verify(jdbcTemplate).update(eq(Queries.UNPUBLISH_OTHER_VERSIONS), any(PreparedStatementSetter.class));
+        inOrder.verify(materializationService).cleanUp();
+    }
+
+    @Test
+    public void failedRefreshKeepsPreviousVersionTest() throws Exception {
+        when(resultSet.getLong("version_id")).thenReturn(1L);
+        cacheService.scheduleRefresh("A");
+        runSubmittedTasks();
+
+        when(resultSet.getLong("version_id")).thenReturn(2L);
+        doThrow(new IllegalStateException("Warm-up failed")).when(cacheWarmUpService).warmUp(anyMap());
+        cacheService.scheduleRefresh("B");
+        runSubmittedTasks();
+
+        assertThat(getPublishedVersionId()).isEqualTo(1L);
+        RefreshJob refreshJob = cacheService.getRefreshJobs().get(0);
+        assertThat(refreshJob.getState()).isEqualTo(RefreshJob.State.FAILED);
+        assertThat(refreshJob.getError()).isEqualTo("Warm-up failed");
+        verify(materializationService, times(1)).cleanUp();
+        verify(jdbcTemplate, never()).update(Queries.PUBLISH_VERSION, versionRegistry.getNode(), 2L);
+    }
+
+    private long getPublishedVersionId() {
+        return versionRegistry.getHubVersion("repository", "hub").getVersionId();
+    }
+
+    private void runSubmittedTasks() {
+        List<Runnable> tasks = new ArrayList<>(submittedTasks);
+        submittedTasks.clear();
+        tasks.forEach(Runnable::run);
+    }
+
+}
@@ -0,0 +1,43 @@
+package no.uio.ifi.trackfind.backend.services;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import no.uio.ifi.trackfind.backend.pojo.ObjectValue;
+import no.uio.ifi.trackfind.backend.services.impl.MetamodelExtractionService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+public class MetamodelExtractionServiceTest {
+
+    private static final JsonObject CONTENT = JsonParser.parseString("{" +
+            "\"a\": {\"b\": \"x\", \"n\": 1.50e1}," +
+            "\"tags\": [\"t1\", \"t2\", [\"t3\"]]," +
+            "\"list\": [{\"c\": true}, {\"c\": null, \"d\": [{\"e\": \"y\"}]}, {}]" +
+            "}").getAsJsonObject();
+
+    private final MetamodelExtractionService metamodelExtractionService = new MetamodelExtractionService();
+
+    @Test
+    public void extractValuesTest() {
+        assertThat(metamodelExtractionService.extractValues(1, 2, CONTENT)).containsExactlyInAnyOrder(
+                new ObjectValue(1, 2, "a->b", "x", "string"),
+                new ObjectValue(1, 2, "a->n", "15.0", "number"),
+                new ObjectValue(1, 2, "tags", "t1", "string"),
+                new ObjectValue(1, 2, "tags", "t2", "string"),
+                new ObjectValue(1, 2, "tags", "t3", "string"),
+                new ObjectValue(1, 2, "list->c", "true", "boolean"),
+                new ObjectValue(1, 2, "list->c", null, "null"),
+                new ObjectValue(1, 2, "list->d->e", "y", "string")
+        );
+    }
+
+    @Test
+    public void extractArrayOfObjectsAttributesTest() {
+        assertThat(metamodelExtractionService.extractArrayOfObjectsAttributes(CONTENT)).containsExactlyInAnyOrder("list", "list->d");
+    }
+
+}